@@ -0,0 +1,83 @@
+package com.yeahnangua.structuresfinder.cache;
+
+import com.yeahnangua.structuresfinder.data.StructureData;
+import com.yeahnangua.structuresfinder.map.BiomeType;
+import com.yeahnangua.structuresfinder.map.TerrainGrid;
+import org.bukkit.map.MapView;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Disk cache round-trip as done by {@link ExplorerMapCache}: save every map of a
+ * pool, register them on load, then hydrate and free each one when handed out.
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MapCacheStoreBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int scale;
+
+    @Param({"1", "2", "4", "8"})
+    public int sampleResolution;
+
+    @Param({"64", "1024"})
+    public int maps;
+
+    private File file;
+    private MapCacheStore store;
+    private CachedMapData[] entries;
+    private long fingerprint;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = File.createTempFile("maps", ".bin");
+        file.deleteOnExit();
+        store = MapCacheStore.open(file, Logger.getLogger("MapCacheStoreBenchmark"), sampleResolution);
+        fingerprint = 31L * sampleResolution + scale;
+
+        Random random = new Random(42);
+        int cells = TerrainGrid.cellsPerAxis(sampleResolution);
+        entries = new CachedMapData[maps];
+        for (int i = 0; i < maps; i++) {
+            byte[] classes = new byte[cells * cells];
+            for (int c = 0; c < classes.length; c++) {
+                classes[c] = (byte) random.nextInt(BiomeType.values().length);
+            }
+            StructureData structure = new StructureData("world", random.nextInt(60000) - 30000, 64,
+                    random.nextInt(60000) - 30000, "structure_" + i + ".schem", "SURFACE", false);
+            entries[i] = new CachedMapData(structure, MapView.Scale.FAR, TerrainGrid.pack(sampleResolution, classes),
+                    structure.x() + 64 * scale, structure.z() - 64 * scale);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        store.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int roundTrip() throws IOException {
+        for (CachedMapData entry : entries) {
+            store.write(entry, fingerprint);
+        }
+        List<CachedMapData> loaded = store.readAll(Map.of(fingerprint, MapView.Scale.FAR));
+        int cells = 0;
+        for (CachedMapData entry : loaded) {
+            TerrainGrid terrain = store.readTerrain(entry.slot());
+            store.free(entry.slot());
+            cells += terrain.cells();
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,69 @@
+package com.yeahnangua.structuresfinder.data;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Structure index loading: {@code reload} re-parses a changed world file and rebuilds its
+ * index, {@code loadStructures} and {@code loadStructuresByType} read the resident index.
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StructureDataLoaderBenchmark {
+
+    private static final String WORLD = "bench_world";
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    private final Logger logger = Logger.getLogger("StructureDataLoaderBenchmark");
+    private File folder;
+    private File file;
+    private long modified;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        logger.setLevel(java.util.logging.Level.WARNING);
+        folder = Files.createTempDirectory("structure_locations").toFile();
+        file = new File(folder, WORLD + ".yml");
+        StructureLocationsParserBenchmark.writeStructureFile(file, entries);
+        // Without resume state the file went through the YAML fallback, which is not what reload measures
+        if (StructureLocationsParser.parseResumable(WORLD, file, logger).resume() == null) {
+            throw new IllegalStateException("Streaming parser rejected the generated file");
+        }
+        modified = file.lastModified();
+        StructureDataLoader.refresh(folder, logger);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        file.delete();
+        folder.delete();
+    }
+
+    @Benchmark
+    public StructureIndex reload() {
+        // A new mtime makes refresh treat the file as changed
+        file.setLastModified(modified += 1000);
+        StructureDataLoader.refresh(folder, logger);
+        return StructureDataLoader.getIndex(WORLD);
+    }
+
+    @Benchmark
+    public List<StructureData> loadStructures() {
+        return StructureDataLoader.loadStructures(WORLD);
+    }
+
+    @Benchmark
+    public List<StructureData> loadStructuresByType() {
+        return StructureDataLoader.loadStructuresByType(WORLD, "SURFACE");
+    }
+}
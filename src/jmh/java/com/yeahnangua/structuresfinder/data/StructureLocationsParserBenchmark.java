@@ -0,0 +1,74 @@
+package com.yeahnangua.structuresfinder.data;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming structure_locations scanner against the full YAML parser.
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StructureLocationsParserBenchmark {
+
+    private static final String[] TYPES = {
+            "SURFACE", "UNDERGROUND_SHALLOW", "UNDERGROUND_DEEP", "SKY", "LIQUID_SURFACE", "SEA_FLOOR"
+    };
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        file = File.createTempFile("structure_locations", ".yml");
+        file.deleteOnExit();
+        writeStructureFile(file, entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        file.delete();
+    }
+
+    @Benchmark
+    public List<StructureData> streaming() throws IOException {
+        return StructureLocationsParser.parseStreaming("world", file);
+    }
+
+    @Benchmark
+    public List<StructureData> yaml() {
+        return StructureLocationsParser.parseWithYaml("world", file);
+    }
+
+    /**
+     * Writes a file in the BetterStructures structure_locations layout.
+     */
+    static void writeStructureFile(File file, int entries) throws IOException {
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath())) {
+            writer.write("structures:\n");
+            for (int i = 0; i < entries; i++) {
+                int x = random.nextInt(60000) - 30000;
+                int y = random.nextInt(256) - 64;
+                int z = random.nextInt(60000) - 30000;
+                writer.write("  " + x + "," + y + "," + z + ":\n");
+                writer.write("    x: " + x + "\n");
+                writer.write("    y: " + y + "\n");
+                writer.write("    z: " + z + "\n");
+                writer.write("    schematic: structure_" + random.nextInt(200) + ".schem\n");
+                writer.write("    type: " + TYPES[random.nextInt(TYPES.length)] + "\n");
+                writer.write("    cleared: " + random.nextBoolean() + "\n");
+            }
+        }
+    }
+}
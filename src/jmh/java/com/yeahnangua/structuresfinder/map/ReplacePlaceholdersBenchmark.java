@@ -0,0 +1,34 @@
+package com.yeahnangua.structuresfinder.map;
+
+import com.yeahnangua.structuresfinder.data.StructureData;
+import org.bukkit.map.MapView;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Placeholder replacement for the map name and a lore line from the default config.
+ * World and type translations are passed in, as the plugin config is not available here.
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReplacePlaceholdersBenchmark {
+
+    @Param({"CLOSEST", "FAR", "FARTHEST"})
+    public MapView.Scale scale;
+
+    private final StructureData structure = new StructureData("world", 1234, 64, -5678,
+            "ancient_temple.schem", "UNDERGROUND_DEEP", false);
+
+    @Benchmark
+    public String displayName() {
+        return ExplorerMapCreator.replacePlaceholders("&6一张古老的地图", structure, scale, "主世界", "地下深处");
+    }
+
+    @Benchmark
+    public String loreLine() {
+        return ExplorerMapCreator.replacePlaceholders("测试模式 %x% %y% %z%", structure, scale, "主世界", "地下深处");
+    }
+}
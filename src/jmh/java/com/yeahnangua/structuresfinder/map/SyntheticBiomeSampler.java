@@ -0,0 +1,67 @@
+package com.yeahnangua.structuresfinder.map;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.block.Biome;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+/**
+ * In-memory biome source for benchmarks: smooth noise bands of ocean, forest,
+ * plains, snow and badlands, with no server or chunks behind it.
+ */
+final class SyntheticBiomeSampler implements BiomeSampler {
+
+    private static final String[] KEYS = {
+            "deep_ocean", "river", "forest", "taiga", "plains", "savanna", "snowy_plains", "mushroom_fields"
+    };
+
+    private final Biome[] biomes = new Biome[KEYS.length];
+
+    SyntheticBiomeSampler() {
+        for (int i = 0; i < KEYS.length; i++) {
+            biomes[i] = biome(KEYS[i], i);
+        }
+    }
+
+    /**
+     * Classifier with the same rules as the default config.
+     */
+    static BiomeClassifier defaultClassifier() {
+        return BiomeClassifier.builder()
+                .rule(BiomeType.WATER, List.of(), List.of("ocean", "river", "swamp", "beach", "frozen_river", "frozen_ocean"))
+                .rule(BiomeType.SNOWY, List.of(), List.of("snowy", "frozen", "ice", "cold"))
+                .rule(BiomeType.FOREST, List.of(), List.of("forest", "taiga", "jungle", "grove", "cherry"))
+                .rule(BiomeType.PLAINS, List.of(), List.of("plains", "savanna", "desert", "badlands", "meadow"))
+                .build();
+    }
+
+    @Override
+    public Biome sample(int x, int y, int z) {
+        double value = Math.sin(x / 900.0) + Math.cos(z / 700.0) + 0.35 * Math.sin((x + z) / 170.0);
+        int index = (int) ((value + 2.35) / 4.7 * biomes.length);
+        return biomes[Math.max(0, Math.min(biomes.length - 1, index))];
+    }
+
+    @Override
+    public String name() {
+        return "synthetic";
+    }
+
+    /**
+     * Biome constants resolve through the server registry, so benchmarks use
+     * proxies that only answer what the classifier asks for.
+     */
+    private static Biome biome(String key, int ordinal) {
+        NamespacedKey namespacedKey = NamespacedKey.minecraft(key);
+        return (Biome) Proxy.newProxyInstance(Biome.class.getClassLoader(), new Class<?>[]{Biome.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getKey" -> namespacedKey;
+                    case "name", "toString" -> key.toUpperCase();
+                    case "ordinal" -> ordinal;
+                    case "hashCode" -> ordinal;
+                    case "equals" -> proxy == args[0];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,65 @@
+package com.yeahnangua.structuresfinder.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Terrain computation as done by {@link ExplorerMapCreator#computeTerrainData}, on a
+ * synthetic biome source. {@code cold} starts every map with an empty tile cache,
+ * {@code warm} recomputes the same map with every tile already cached.
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TerrainSamplingBenchmark {
+
+    private static final int COARSE_SIZE = 16;
+
+    @Param({"1", "4", "16"})
+    public int scale;
+
+    @Param({"1", "2", "4", "8"})
+    public int sampleResolution;
+
+    @Param({TerrainSampling.UNIFORM, TerrainSampling.ADAPTIVE})
+    public String mode;
+
+    private TerrainExecutor executor;
+    private BiomeClassifier classifier;
+    private BiomeSampler sampler;
+    private BiomeTileCache warmCache;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executor = new TerrainExecutor(Runtime.getRuntime().availableProcessors(), 1, 1);
+        classifier = SyntheticBiomeSampler.defaultClassifier();
+        sampler = new SyntheticBiomeSampler();
+        warmCache = new BiomeTileCache(65536);
+        compute(warmCache);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public TerrainGrid cold() {
+        return compute(new BiomeTileCache(65536));
+    }
+
+    @Benchmark
+    public TerrainGrid warm() {
+        return compute(warmCache);
+    }
+
+    private TerrainGrid compute(BiomeTileCache tileCache) {
+        TerrainSampling.Context context = new TerrainSampling.Context(classifier, sampler, tileCache, 1L, "bench",
+                1000, -2000, scale, sampleResolution);
+        return (TerrainSampling.ADAPTIVE.equals(mode)
+                ? TerrainSampling.adaptive(executor, TerrainExecutor.Priority.HIGH, context, COARSE_SIZE)
+                : TerrainSampling.uniform(executor, TerrainExecutor.Priority.HIGH, context)).join();
+    }
+}
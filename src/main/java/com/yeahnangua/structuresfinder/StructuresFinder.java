@@ -1,16 +1,45 @@
 package com.yeahnangua.structuresfinder;
 
+import com.yeahnangua.structuresfinder.cache.CacheWarmup;
 import com.yeahnangua.structuresfinder.cache.ExplorerMapCache;
 import com.yeahnangua.structuresfinder.commands.FindStructureCommand;
+import com.yeahnangua.structuresfinder.data.StructureDataLoader;
+import com.yeahnangua.structuresfinder.data.StructureDataWatcher;
+import com.yeahnangua.structuresfinder.map.BiomeClassifier;
+import com.yeahnangua.structuresfinder.map.BiomeTileCache;
+import com.yeahnangua.structuresfinder.map.BiomeType;
+import com.yeahnangua.structuresfinder.map.ExplorerMapCreator;
+import com.yeahnangua.structuresfinder.map.MapColorWriter;
+import com.yeahnangua.structuresfinder.map.MapIdRegistry;
+import com.yeahnangua.structuresfinder.map.TerrainExecutor;
+import com.yeahnangua.structuresfinder.metrics.Metrics;
+import com.yeahnangua.structuresfinder.metrics.PrometheusExporter;
+import com.yeahnangua.structuresfinder.util.DebugLogger;
+import com.yeahnangua.structuresfinder.util.MainThreadWorkQueue;
 import org.bukkit.ChatColor;
+import org.bukkit.map.MapView;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public final class StructuresFinder extends JavaPlugin {
 
     private static StructuresFinder instance;
     private ExplorerMapCache mapCache;
+    private volatile BiomeClassifier biomeClassifier;
+    private TerrainExecutor terrainExecutor;
+    private BiomeTileCache biomeTileCache;
+    private PrometheusExporter metricsExporter;
+    private MapIdRegistry mapIdRegistry;
+    private StructureDataWatcher dataWatcher;
+    private CacheWarmup cacheWarmup;
+    private MainThreadWorkQueue mainThreadQueue;
+    private volatile boolean biomeTilesLoaded;
 
     @Override
     public void onEnable() {
@@ -18,28 +47,101 @@ public final class StructuresFinder extends JavaPlugin {
 
         // Save default config if not exists
         saveDefaultConfig();
+        DebugLogger.start(this);
+        compileBiomeClassifier();
 
-        getLogger().info("StructuresFinder has been enabled!");
+        DebugLogger.info("StructuresFinder has been enabled!");
+
+        // Terrain worker threads, sized once per enable
+        terrainExecutor = new TerrainExecutor(getTerrainThreads(),
+                getTerrainQueueLimit("player"), getTerrainQueueLimit("refill"));
+
+        // Main-thread part of map delivery, spread over ticks
+        mainThreadQueue = new MainThreadWorkQueue(this);
+        mainThreadQueue.start();
+
+        // Sampled biome tiles, filled from the previous run's file by the startup task
+        biomeTileCache = new BiomeTileCache(getBiomeTileCacheSize());
 
         // Initialize cache system
         mapCache = new ExplorerMapCache(this);
-        mapCache.loadFromDisk();
+        cacheWarmup = new CacheWarmup(this, mapCache);
+        getServer().getPluginManager().registerEvents(cacheWarmup, this);
+
+        // Issued map IDs, reused once their maps are gone and maps.yml has been read
+        mapIdRegistry = new MapIdRegistry(this);
+        mapIdRegistry.start();
+        getServer().getPluginManager().registerEvents(mapIdRegistry, this);
+
+        // Gauges read live state at export time
+        registerGauges();
+        metricsExporter = new PrometheusExporter(this);
+        metricsExporter.start();
 
         // Register command
         FindStructureCommand command = new FindStructureCommand();
         getCommand("findstructure").setExecutor(command);
         getCommand("findstructure").setTabCompleter(command);
 
-        // Initialize missing caches after server is fully loaded
-        getServer().getScheduler().runTaskLater(this, () -> {
-            getLogger().info("Initializing explorer map cache...");
-            mapCache.initializeAll();
-        }, 40L); // 2 seconds delay
+        // Read issued map IDs and biome tiles, register cached maps and build the structure index
+        // off the main thread. Missing maps are generated once that is done and the server has
+        // finished loading, so warm-up sees the loaded tiles
+        long tileFingerprint = ExplorerMapCreator.getTileFingerprint();
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            mapIdRegistry.load();
+            getServer().getScheduler().runTask(this, mapIdRegistry::loadComplete);
+            biomeTileCache.load(getBiomeTileFile(), tileFingerprint, getLogger());
+            biomeTilesLoaded = true;
+            mapCache.loadFromDisk();
+            StructureDataLoader.refresh();
+            getServer().getScheduler().runTask(this, cacheWarmup::indexReady);
+        });
+        getServer().getScheduler().runTask(this, cacheWarmup::serverLoaded);
+
+        // Resize pools from recorded demand
+        long rebalanceTicks = getDemandRebalanceInterval() * 20L;
+        getServer().getScheduler().runTaskTimer(this, mapCache::rebalance, rebalanceTicks, rebalanceTicks);
+
+        // Pick up changed BetterStructures files as they are written, and periodically as a fallback
+        StructureDataLoader.setChangeListener(mapCache::evict);
+        dataWatcher = new StructureDataWatcher(this);
+        dataWatcher.start();
+        long refreshTicks = getIndexRefreshInterval() * 20L;
+        getServer().getScheduler().runTaskTimerAsynchronously(this, StructureDataLoader::refresh, refreshTicks, refreshTicks);
     }
 
     @Override
     public void onDisable() {
-        getLogger().info("StructuresFinder has been disabled!");
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+        }
+        if (dataWatcher != null) {
+            dataWatcher.stop();
+        }
+        if (cacheWarmup != null) {
+            cacheWarmup.stop();
+        }
+        StructureDataLoader.setChangeListener(null);
+        // Stop terrain work first so no job writes to the cache after it is closed
+        if (terrainExecutor != null) {
+            terrainExecutor.shutdown();
+        }
+        if (mainThreadQueue != null) {
+            mainThreadQueue.shutdown();
+        }
+        if (mapCache != null) {
+            mapCache.shutdown();
+        }
+        if (mapIdRegistry != null) {
+            mapIdRegistry.stop();
+            mapIdRegistry.save();
+        }
+        // A save before the old file was read would drop its tiles
+        if (biomeTileCache != null && biomeTilesLoaded) {
+            biomeTileCache.save(getBiomeTileFile(), ExplorerMapCreator.getTileFingerprint(), getLogger());
+        }
+        DebugLogger.info("StructuresFinder has been disabled!");
+        DebugLogger.shutdown();
     }
 
     public static StructuresFinder getInstance() {
@@ -50,6 +152,26 @@ public final class StructuresFinder extends JavaPlugin {
         return mapCache;
     }
 
+    public TerrainExecutor getTerrainExecutor() {
+        return terrainExecutor;
+    }
+
+    public BiomeTileCache getBiomeTileCache() {
+        return biomeTileCache;
+    }
+
+    public MapIdRegistry getMapIdRegistry() {
+        return mapIdRegistry;
+    }
+
+    public MainThreadWorkQueue getMainThreadQueue() {
+        return mainThreadQueue;
+    }
+
+    private File getBiomeTileFile() {
+        return new File(getDataFolder(), "cache/tiles.bin");
+    }
+
     /**
      * Gets a config string with color codes translated.
      */
@@ -72,6 +194,90 @@ public final class StructuresFinder extends JavaPlugin {
      */
     public void reloadPluginConfig() {
         reloadConfig();
+        DebugLogger.configure(this);
+        compileBiomeClassifier();
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+            metricsExporter.start();
+        }
+        if (mapIdRegistry != null) {
+            mapIdRegistry.start();
+        }
+        if (dataWatcher != null) {
+            dataWatcher.stop();
+            dataWatcher.start();
+        }
+    }
+
+    /**
+     * Registers gauges for the terrain and main-thread queues, map pools, warm-up, tile cache, map colours, map IDs and logger.
+     */
+    private void registerGauges() {
+        Metrics.gauge("structuresfinder_terrain_active_jobs", "Terrain jobs currently running.",
+                () -> Map.of("", terrainExecutor.getStats().active()));
+        Metrics.gauge("structuresfinder_terrain_queued_jobs", "Terrain jobs waiting per lane.", () -> {
+            TerrainExecutor.Stats stats = terrainExecutor.getStats();
+            return Map.of(Metrics.labels("lane", "player"), stats.queuedHigh(),
+                    Metrics.labels("lane", "refill"), stats.queuedLow());
+        });
+        Metrics.gauge("structuresfinder_terrain_rejected_jobs", "Terrain jobs rejected because a lane was full.",
+                () -> Map.of("", terrainExecutor.getStats().rejected()));
+        Metrics.gauge("structuresfinder_cache_warmup_remaining", "Cached maps the startup warm-up has not started yet.",
+                () -> Map.of("", cacheWarmup.getRemaining()));
+        Metrics.gauge("structuresfinder_pool_size", "Ready maps per pool (world_type).", () -> {
+            Map<String, Number> samples = new HashMap<>();
+            for (ExplorerMapCache.PoolStats stats : mapCache.getPoolStats()) {
+                samples.put(Metrics.labels("pool", stats.key()), stats.size());
+            }
+            return samples;
+        });
+        Metrics.gauge("structuresfinder_pool_depth", "Target depth per pool (world_type).", () -> {
+            Map<String, Number> samples = new HashMap<>();
+            for (ExplorerMapCache.PoolStats stats : mapCache.getPoolStats()) {
+                samples.put(Metrics.labels("pool", stats.key()), stats.depth());
+            }
+            return samples;
+        });
+        Metrics.gauge("structuresfinder_pool_demand", "Decayed request count per pool (world_type).", () -> {
+            Map<String, Number> samples = new HashMap<>();
+            for (ExplorerMapCache.PoolStats stats : mapCache.getPoolStats()) {
+                samples.put(Metrics.labels("pool", stats.key()), stats.demand());
+            }
+            return samples;
+        });
+        Metrics.gauge("structuresfinder_tile_cache_tiles", "Biome tiles held in memory.",
+                () -> Map.of("", biomeTileCache.size()));
+        Metrics.gauge("structuresfinder_map_colors_fast_path", "1 if map colours are written directly, 0 for the canvas fallback.",
+                () -> Map.of(Metrics.labels("adapter", MapColorWriter.getActiveAdapter()), MapColorWriter.isFastPathActive() ? 1 : 0));
+        Metrics.gauge("structuresfinder_map_ids", "Map IDs issued by the plugin: tracked, reusable and reused.", () -> Map.of(
+                Metrics.labels("state", "tracked"), mapIdRegistry.getTrackedCount(),
+                Metrics.labels("state", "reusable"), mapIdRegistry.getReusableCount(),
+                Metrics.labels("state", "reused"), mapIdRegistry.getReusedCount()));
+        Metrics.gauge("structuresfinder_main_queue_items", "Main-thread work items waiting for a tick with budget left.",
+                () -> Map.of("", mainThreadQueue.size()));
+        Metrics.gauge("structuresfinder_main_queue_deferred_ticks", "Ticks that used their whole budget with work left over.",
+                () -> Map.of("", mainThreadQueue.getDeferredTicks()));
+        Metrics.gauge("structuresfinder_log_dropped_lines", "Log lines dropped because the buffer was full.",
+                () -> Map.of("", DebugLogger.getDroppedCount()));
+    }
+
+    /**
+     * Builds the biome classifier from the configured water/snowy/forest/plains lists.
+     */
+    private void compileBiomeClassifier() {
+        biomeClassifier = BiomeClassifier.builder()
+                .rule(BiomeType.WATER, getWaterBiomeExact(), getWaterBiomeKeywords())
+                .rule(BiomeType.SNOWY, getBiomeClassExact("snowy"), getBiomeClassKeywords("snowy"))
+                .rule(BiomeType.FOREST, getBiomeClassExact("forest"), getBiomeClassKeywords("forest"))
+                .rule(BiomeType.PLAINS, getBiomeClassExact("plains"), getBiomeClassKeywords("plains"))
+                .build();
+    }
+
+    /**
+     * Gets the biome classifier compiled from the current config.
+     */
+    public BiomeClassifier getBiomeClassifier() {
+        return biomeClassifier;
     }
 
     /**
@@ -91,6 +297,38 @@ public final class StructuresFinder extends JavaPlugin {
         return Math.max(1, Math.min(16, resolution));
     }
 
+    /**
+     * Gets the terrain sampling mode: uniform or adaptive.
+     */
+    public String getTerrainSamplingMode() {
+        String mode = getConfig().getString("explorer-map-style.sampling-mode", "uniform").toLowerCase(Locale.ROOT);
+        return mode.equals("adaptive") ? "adaptive" : "uniform";
+    }
+
+    /**
+     * Gets the starting cell size in pixels for adaptive sampling, a power of two from 2 to 64.
+     */
+    public int getAdaptiveCoarseSize() {
+        int size = Math.max(2, Math.min(64, getConfig().getInt("explorer-map-style.adaptive.coarse-size", 16)));
+        return Integer.highestOneBit(size);
+    }
+
+    /**
+     * Gets the smallest cell size in pixels for adaptive sampling, a power of two
+     * from 1 up to the coarse size.
+     */
+    public int getAdaptiveMinSize() {
+        int size = Math.max(1, Math.min(getAdaptiveCoarseSize(), getConfig().getInt("explorer-map-style.adaptive.min-size", 2)));
+        return Integer.highestOneBit(size);
+    }
+
+    /**
+     * Gets the biome sampling backend: auto, provider, generated, loaded or legacy.
+     */
+    public String getBiomeSamplerMode() {
+        return getConfig().getString("explorer-map-style.sampler", "auto").toLowerCase(Locale.ROOT);
+    }
+
     /**
      * Gets the list of water biome keywords for fuzzy matching.
      */
@@ -104,4 +342,291 @@ public final class StructuresFinder extends JavaPlugin {
     public List<String> getWaterBiomeExact() {
         return getConfig().getStringList("explorer-map-style.water-biomes.exact");
     }
+
+    /**
+     * Gets how often (in seconds) BetterStructures files are checked for changes.
+     */
+    public int getIndexRefreshInterval() {
+        return Math.max(1, getConfig().getInt("structure-index.refresh-interval", 30));
+    }
+
+    /**
+     * Checks whether BetterStructures files are watched for changes between periodic refreshes.
+     */
+    public boolean isIndexWatchEnabled() {
+        return getConfig().getBoolean("structure-index.watch", true);
+    }
+
+    /**
+     * Gets how long (in milliseconds) the data folder must be quiet before a watched change is read.
+     */
+    public long getIndexWatchDebounceMillis() {
+        return Math.max(50, getConfig().getLong("structure-index.watch-debounce-ms", 500));
+    }
+
+    /**
+     * Gets how many of the nearest structures --near picks from.
+     */
+    public int getNearCandidates() {
+        return Math.max(1, getConfig().getInt("selection.near-candidates", 3));
+    }
+
+    /**
+     * Gets how many ready maps the cache keeps for a world/type.
+     * Per world/type overrides live under cache.pool.overrides.<world>.<type>.
+     */
+    public int getPoolDepth(String worldName, String structureType) {
+        int depth = getConfig().getInt("cache.pool.depth", 3);
+        depth = getConfig().getInt("cache.pool.overrides." + worldName + "." + structureType, depth);
+        return Math.max(0, depth);
+    }
+
+    /**
+     * Checks whether a world/type has a pool depth set under cache.pool.overrides
+     * (or cache.pool.notclear-overrides), which demand-based sizing leaves alone.
+     */
+    public boolean hasPoolDepthOverride(String worldName, String structureType, boolean notCleared) {
+        String section = notCleared ? "cache.pool.notclear-overrides." : "cache.pool.overrides.";
+        return getConfig().contains(section + worldName + "." + structureType);
+    }
+
+    /**
+     * Checks whether pool depths follow how often each world/type is requested.
+     */
+    public boolean isDemandSizingEnabled() {
+        return getConfig().getBoolean("cache.demand.enabled", true);
+    }
+
+    /**
+     * Gets the time (in milliseconds) after which a recorded request counts half as much.
+     */
+    public long getDemandHalfLifeMillis() {
+        return (long) (Math.max(0.1, getConfig().getDouble("cache.demand.half-life-hours", 24.0)) * 3_600_000L);
+    }
+
+    /**
+     * Gets the total number of ready maps demand-based sizing may spread across all pools.
+     */
+    public int getDemandMaxMaps() {
+        return Math.max(0, getConfig().getInt("cache.demand.max-maps", 128));
+    }
+
+    /**
+     * Gets the depth every pool that is still requested gets before the rest is shared out.
+     */
+    public int getDemandMinDepth() {
+        return Math.max(0, getConfig().getInt("cache.demand.min-depth", 1));
+    }
+
+    /**
+     * Gets the largest depth demand-based sizing gives a single pool.
+     */
+    public int getDemandMaxDepth() {
+        return Math.max(getDemandMinDepth(), getConfig().getInt("cache.demand.max-depth", 12));
+    }
+
+    /**
+     * Gets the decayed request count below which a pool is cold and keeps no maps.
+     */
+    public double getDemandColdThreshold() {
+        return Math.max(0.0, getConfig().getDouble("cache.demand.cold-threshold", 0.05));
+    }
+
+    /**
+     * Gets how long (in milliseconds) a pool is tracked before it can be considered cold.
+     */
+    public long getDemandColdAfterMillis() {
+        return (long) (Math.max(0.0, getConfig().getDouble("cache.demand.cold-after-hours", 72.0)) * 3_600_000L);
+    }
+
+    /**
+     * Gets how often (in seconds) pool depths are recomputed from demand.
+     */
+    public int getDemandRebalanceInterval() {
+        return Math.max(10, getConfig().getInt("cache.demand.rebalance-interval", 300));
+    }
+
+    /**
+     * Gets how many cached maps start generating per second while the pools warm up after startup.
+     */
+    public double getWarmupRate() {
+        return Math.max(0.1, getConfig().getDouble("cache.warmup.maps-per-second", 2.0));
+    }
+
+    /**
+     * Gets how many warm-up maps may be generating at once.
+     */
+    public int getWarmupConcurrency() {
+        return Math.max(1, getConfig().getInt("cache.warmup.max-concurrent", 2));
+    }
+
+    /**
+     * Gets the map scales whose pools are filled at startup. Other scales get a pool
+     * the first time they are requested. Unknown names are ignored.
+     */
+    public List<MapView.Scale> getWarmupScales() {
+        List<MapView.Scale> scales = new ArrayList<>();
+        for (String name : getConfig().getStringList("cache.warmup.scales")) {
+            for (MapView.Scale scale : MapView.Scale.values()) {
+                if (scale.name().equalsIgnoreCase(name) && !scales.contains(scale)) {
+                    scales.add(scale);
+                }
+            }
+        }
+        return scales.isEmpty() ? List.of(MapView.Scale.NORMAL, MapView.Scale.FAR) : scales;
+    }
+
+    /**
+     * Gets how many ready maps of uncleared structures the cache keeps for a world/type,
+     * served to --notclear requests. 0 disables the partition.
+     */
+    public int getNotClearedPoolDepth(String worldName, String structureType) {
+        int depth = getConfig().getInt("cache.pool.notclear-depth", 2);
+        depth = getConfig().getInt("cache.pool.notclear-overrides." + worldName + "." + structureType, depth);
+        return Math.max(0, depth);
+    }
+
+    /**
+     * Gets the pool size at or below which background refill starts.
+     */
+    public int getPoolLowWatermark() {
+        return Math.max(0, getConfig().getInt("cache.pool.low-watermark", 1));
+    }
+
+    /**
+     * Gets the number of terrain worker threads. 0 or less means half the available processors.
+     */
+    public int getTerrainThreads() {
+        int threads = getConfig().getInt("terrain.threads", 0);
+        return threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * Gets the maximum number of biome tiles kept in memory and on disk.
+     */
+    public int getBiomeTileCacheSize() {
+        return Math.max(64, getConfig().getInt("terrain.tile-cache.max-tiles", 16384));
+    }
+
+    /**
+     * Gets the maximum queued or running terrain jobs for a lane (player or refill).
+     */
+    public int getTerrainQueueLimit(String lane) {
+        return Math.max(1, getConfig().getInt("terrain.queue-limit." + lane, "player".equals(lane) ? 16 : 64));
+    }
+
+    /**
+     * Gets the keywords for a biome class (snowy, forest, plains).
+     */
+    public List<String> getBiomeClassKeywords(String biomeClass) {
+        return getConfig().getStringList("explorer-map-style." + biomeClass + "-biomes.keywords");
+    }
+
+    /**
+     * Gets the exact biome names for a biome class (snowy, forest, plains).
+     */
+    public List<String> getBiomeClassExact(String biomeClass) {
+        return getConfig().getStringList("explorer-map-style." + biomeClass + "-biomes.exact");
+    }
+
+    /**
+     * Gets a log level from the config.
+     */
+    public DebugLogger.Level getLogLevel(String path, DebugLogger.Level fallback) {
+        return DebugLogger.parseLevel(getConfig().getString(path), fallback);
+    }
+
+    /**
+     * Gets the size in bytes at which log.log is rotated, 0 for no rotation.
+     */
+    public long getLogMaxFileSize() {
+        return Math.max(0, getConfig().getLong("logging.max-file-size-kb", 1024)) * 1024;
+    }
+
+    /**
+     * Gets how many rotated log files (log.1.log, log.2.log, ...) are kept.
+     */
+    public int getLogMaxFiles() {
+        return Math.max(0, getConfig().getInt("logging.max-files", 3));
+    }
+
+    /**
+     * Gets how many log lines may wait for the background writer before new ones are dropped.
+     */
+    public int getLogBufferSize() {
+        return Math.max(64, getConfig().getInt("logging.buffer-size", 8192));
+    }
+
+    /**
+     * Gets the main-thread time per tick for handing out maps, in nanoseconds.
+     */
+    public long getMainThreadBudgetNanos() {
+        double millis = getConfig().getDouble("terrain.main-thread-budget-ms", 5.0);
+        return (long) (Math.max(0.1, millis) * 1_000_000);
+    }
+
+    /**
+     * Gets how many terrain jobs one batch command may have queued at once.
+     * Kept below the player lane limit so single requests are not rejected meanwhile.
+     */
+    public int getBatchMaxInFlight() {
+        int limit = getConfig().getInt("batch.max-in-flight", 8);
+        return Math.max(1, Math.min(limit, getTerrainQueueLimit("player") - 1));
+    }
+
+    /**
+     * Gets how many batch maps are handed out per tick.
+     */
+    public int getBatchMapsPerTick() {
+        return Math.max(1, getConfig().getInt("batch.maps-per-tick", 4));
+    }
+
+    /**
+     * Gets after how many days unseen an issued map ID is reused, 0 to never reuse IDs.
+     */
+    public int getMapRecycleDays() {
+        return Math.max(0, getConfig().getInt("map-ids.recycle-after-days", 0));
+    }
+
+    /**
+     * Gets how often (in seconds) players and loaded chunks are scanned for issued maps.
+     */
+    public long getMapScanInterval() {
+        return Math.max(60, getConfig().getLong("map-ids.scan-interval", 600));
+    }
+
+    /**
+     * Gets how many loaded chunks one tick of the map scan looks at.
+     */
+    public int getMapScanChunksPerTick() {
+        return Math.max(1, getConfig().getInt("map-ids.scan-chunks-per-tick", 50));
+    }
+
+    /**
+     * Gets how often metrics.prom is rewritten in seconds, 0 to disable the file.
+     */
+    public long getMetricsFileInterval() {
+        return Math.max(0, getConfig().getLong("metrics.file-interval", 60));
+    }
+
+    /**
+     * Checks if the Prometheus HTTP endpoint is enabled.
+     */
+    public boolean isMetricsHttpEnabled() {
+        return getConfig().getBoolean("metrics.http.enabled", false);
+    }
+
+    /**
+     * Gets the address the metrics endpoint binds to.
+     */
+    public String getMetricsHttpHost() {
+        return getConfig().getString("metrics.http.host", "127.0.0.1");
+    }
+
+    /**
+     * Gets the port of the metrics endpoint.
+     */
+    public int getMetricsHttpPort() {
+        return getConfig().getInt("metrics.http.port", 9464);
+    }
 }
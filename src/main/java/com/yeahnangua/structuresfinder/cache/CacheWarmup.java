@@ -0,0 +1,141 @@
+package com.yeahnangua.structuresfinder.cache;
+
+import com.yeahnangua.structuresfinder.StructuresFinder;
+import com.yeahnangua.structuresfinder.util.DebugLogger;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.ServerLoadEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 启动后把地图池补到配置深度。
+ *
+ * <p>等服务器加载完成且结构索引就绪后才开始, 按 {@link ExplorerMapCache#planWarmup()} 的顺序
+ * 每秒最多开始 cache.warmup.maps-per-second 张, 同时最多生成 cache.warmup.max-concurrent 张,
+ * 避免启动时一次性把所有缺失的地图塞进地形队列。
+ */
+public class CacheWarmup implements Listener {
+
+    private static final int REPORT_STEPS = 10;
+
+    private final StructuresFinder plugin;
+    private final ExplorerMapCache cache;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger finished = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private ArrayDeque<MapPool> queue;
+    // queue 的大小, 供异步线程上的指标读取
+    private volatile int remaining;
+    private boolean serverLoaded;
+    private boolean indexReady;
+    private boolean started;
+    private BukkitTask task;
+    private int total;
+    private int skipped;
+    private int reported;
+    private double tokens;
+    private long startTime;
+
+    public CacheWarmup(StructuresFinder plugin, ExplorerMapCache cache) {
+        this.plugin = plugin;
+        this.cache = cache;
+    }
+
+    @EventHandler
+    public void onServerLoad(ServerLoadEvent event) {
+        serverLoaded();
+    }
+
+    /**
+     * 标记服务器已加载完成。启动时 ServerLoadEvent 早于第一个 tick, 插件在启动后才被启用时
+     * 收不到该事件, 由第一个 tick 调用本方法补上。主线程调用。
+     */
+    public void serverLoaded() {
+        serverLoaded = true;
+        startIfReady();
+    }
+
+    /**
+     * 标记结构索引和磁盘缓存已载入。主线程调用。
+     */
+    public void indexReady() {
+        indexReady = true;
+        startIfReady();
+    }
+
+    private void startIfReady() {
+        if (started || !serverLoaded || !indexReady) {
+            return;
+        }
+        started = true;
+        queue = new ArrayDeque<>(cache.planWarmup());
+        total = queue.size();
+        remaining = total;
+        if (total == 0) {
+            DebugLogger.info("[缓存] 预热: 所有地图池已满");
+            return;
+        }
+        startTime = System.currentTimeMillis();
+        DebugLogger.info("[缓存] 预热开始: " + total + " 张地图, 每秒 " + plugin.getWarmupRate()
+                + " 张, 并发 " + plugin.getWarmupConcurrency());
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    private void tick() {
+        double rate = plugin.getWarmupRate();
+        tokens = Math.min(Math.max(1.0, rate), tokens + rate / 20.0);
+        int concurrency = plugin.getWarmupConcurrency();
+        while (tokens >= 1.0 && inFlight.get() < concurrency && !queue.isEmpty()) {
+            CompletableFuture<Boolean> done = cache.warm(queue.poll());
+            if (done == null) {
+                // 已被按需补充填满
+                skipped++;
+                continue;
+            }
+            tokens -= 1.0;
+            inFlight.incrementAndGet();
+            done.whenComplete((ok, error) -> {
+                if (!Boolean.TRUE.equals(ok)) {
+                    failed.incrementAndGet();
+                }
+                finished.incrementAndGet();
+                inFlight.decrementAndGet();
+            });
+        }
+        remaining = queue.size();
+
+        int done = finished.get() + skipped;
+        int step = done * REPORT_STEPS / total;
+        if (step > reported && done < total) {
+            reported = step;
+            DebugLogger.info("[缓存] 预热进度: " + done + "/" + total + " (" + step * 100 / REPORT_STEPS + "%), 生成中 " + inFlight.get());
+        }
+        if (done == total) {
+            stop();
+            long elapsed = System.currentTimeMillis() - startTime;
+            DebugLogger.info("[缓存] 预热完成: " + (finished.get() - failed.get()) + " 张生成, " + failed.get() + " 张失败, "
+                    + skipped + " 张无需生成, 耗时 " + elapsed / 1000 + "s");
+        }
+    }
+
+    /**
+     * 停止预热, 已开始的生成会继续完成。插件关闭时调用。
+     */
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    /**
+     * 还未开始生成的地图数量。可在任意线程调用。
+     */
+    public int getRemaining() {
+        return remaining;
+    }
+}
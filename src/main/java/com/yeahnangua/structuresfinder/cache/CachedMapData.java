@@ -1,14 +1,25 @@
 package com.yeahnangua.structuresfinder.cache;
 
 import com.yeahnangua.structuresfinder.data.StructureData;
+import com.yeahnangua.structuresfinder.map.TerrainGrid;
+import org.bukkit.map.MapView;
 
 /**
- * 预生成地图的缓存数据。
+ * 预生成地图的缓存数据。地形以紧凑网格保存, 发放时才展开为地图颜色。
+ * terrain 为 null 表示地形数据仍在磁盘缓存的 slot 槽位中, 尚未读取。
  */
 public record CachedMapData(
         StructureData structure,
-        byte[] terrainData,
+        MapView.Scale scale,
+        TerrainGrid terrain,
         int centerX,
-        int centerZ
+        int centerZ,
+        int slot
 ) {
+    /**
+     * 未持久化的缓存数据。
+     */
+    public CachedMapData(StructureData structure, MapView.Scale scale, TerrainGrid terrain, int centerX, int centerZ) {
+        this(structure, scale, terrain, centerX, centerZ, -1);
+    }
 }
@@ -0,0 +1,171 @@
+package com.yeahnangua.structuresfinder.cache;
+
+import com.yeahnangua.structuresfinder.util.DebugLogger;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.map.MapView;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按池记录请求频率。每个池一个指数衰减计数器: 每次请求加 1, 每过一个半衰期减半。
+ * 保存在 cache/demand.yml, 重启后继续使用。
+ */
+class DemandTracker {
+
+    /**
+     * 一个池的计数器。since 为开始记录的时间, 用于判断从未被请求的池是否已冷却。
+     */
+    static final class Counter {
+        final String worldName;
+        final String structureType;
+        final boolean notCleared;
+        final MapView.Scale scale;
+        final long since;
+        private double value;
+        private long updated;
+
+        Counter(String worldName, String structureType, boolean notCleared, MapView.Scale scale, long since,
+                double value, long updated) {
+            this.worldName = worldName;
+            this.structureType = structureType;
+            this.notCleared = notCleared;
+            this.scale = scale;
+            this.since = since;
+            this.value = value;
+            this.updated = updated;
+        }
+
+        synchronized void add(long now, long halfLifeMillis) {
+            value = decayed(now, halfLifeMillis) + 1.0;
+            updated = now;
+        }
+
+        /**
+         * 衰减到 now 时的计数。
+         */
+        synchronized double rate(long now, long halfLifeMillis) {
+            return decayed(now, halfLifeMillis);
+        }
+
+        private double decayed(long now, long halfLifeMillis) {
+            long elapsed = Math.max(0, now - updated);
+            return value * Math.pow(0.5, (double) elapsed / halfLifeMillis);
+        }
+    }
+
+    private final File file;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    DemandTracker(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 取得池的计数器, 不存在时从 now 开始记录。
+     */
+    Counter counter(String key, MapPool pool, long now) {
+        return counters.computeIfAbsent(key,
+                k -> new Counter(pool.worldName(), pool.structureType(), pool.notCleared(), pool.scale(), now, 0.0, now));
+    }
+
+    /**
+     * 记录一次请求。
+     */
+    void record(String key, MapPool pool, long halfLifeMillis) {
+        long now = System.currentTimeMillis();
+        counter(key, pool, now).add(now, halfLifeMillis);
+    }
+
+    /**
+     * 池当前的衰减计数, 没有记录时为 0。
+     */
+    double rate(String key, long now, long halfLifeMillis) {
+        Counter counter = counters.get(key);
+        return counter == null ? 0.0 : counter.rate(now, halfLifeMillis);
+    }
+
+    /**
+     * 是否记录过任何请求。没有记录时按配置深度分配。
+     */
+    boolean hasData(long now, long halfLifeMillis) {
+        for (Counter counter : counters.values()) {
+            if (counter.rate(now, halfLifeMillis) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 从 demand.yml 读取计数器。
+     */
+    void load() {
+        if (!file.exists()) {
+            return;
+        }
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+        ConfigurationSection section = config.getConfigurationSection("pools");
+        if (section == null) {
+            return;
+        }
+        for (String index : section.getKeys(false)) {
+            ConfigurationSection entry = section.getConfigurationSection(index);
+            if (entry == null || entry.getString("world") == null || entry.getString("type") == null) {
+                continue;
+            }
+            String worldName = entry.getString("world");
+            String structureType = entry.getString("type");
+            boolean notCleared = entry.getBoolean("notclear");
+            // 旧版记录没有缩放, 都是 FAR
+            MapView.Scale scale;
+            try {
+                scale = MapView.Scale.valueOf(entry.getString("scale", "far").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            long updated = entry.getLong("updated");
+            counters.put(ExplorerMapCache.getCacheKey(worldName, structureType, notCleared, scale),
+                    new Counter(worldName, structureType, notCleared, scale, entry.getLong("since", updated),
+                            entry.getDouble("rate"), updated));
+        }
+        DebugLogger.info("[缓存] 已载入 " + counters.size() + " 个池的请求记录");
+    }
+
+    /**
+     * 保存计数器到 demand.yml。
+     */
+    synchronized void save() {
+        YamlConfiguration config = new YamlConfiguration();
+        int index = 0;
+        for (Counter counter : counters.values()) {
+            String path = "pools." + index++;
+            double value;
+            synchronized (counter) {
+                value = counter.value;
+                config.set(path + ".updated", counter.updated);
+            }
+            config.set(path + ".world", counter.worldName);
+            config.set(path + ".type", counter.structureType);
+            config.set(path + ".notclear", counter.notCleared);
+            config.set(path + ".scale", counter.scale.name().toLowerCase(Locale.ROOT));
+            config.set(path + ".rate", value);
+            config.set(path + ".since", counter.since);
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            Files.writeString(temp.toPath(), config.saveToString(), StandardCharsets.UTF_8);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            DebugLogger.warn("[缓存] 保存请求记录失败: " + e.getMessage());
+        }
+    }
+}
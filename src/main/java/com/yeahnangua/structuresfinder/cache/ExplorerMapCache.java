@@ -1,34 +1,69 @@
 package com.yeahnangua.structuresfinder.cache;
 
 import com.yeahnangua.structuresfinder.StructuresFinder;
+import com.yeahnangua.structuresfinder.data.StructureChanges;
 import com.yeahnangua.structuresfinder.data.StructureData;
 import com.yeahnangua.structuresfinder.data.StructureDataLoader;
+import com.yeahnangua.structuresfinder.data.StructureIndex;
 import com.yeahnangua.structuresfinder.map.ExplorerMapCreator;
+import com.yeahnangua.structuresfinder.map.TerrainExecutor;
+import com.yeahnangua.structuresfinder.map.TerrainGrid;
+import com.yeahnangua.structuresfinder.metrics.Metrics;
+import com.yeahnangua.structuresfinder.util.DebugLogger;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.map.MapView;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.logging.Level;
 
 /**
  * 管理预生成地图的缓存系统。
+ * 每个 world/type/缩放 维护一个地图池, 每张地图只发放一次, 低于低水位时后台补充。
+ * 另有只含未清理结构的 notclear 分区, 供 --notclear 请求直接命中缓存。
+ *
+ * <p>补充某个缩放的池时, 同一 world/type/分区下其他缺图的缩放会用同一结构一起生成,
+ * 从最精细的缩放开始, 每个缩放按自己的比例随机偏移中心。地形采样点对齐到世界网格,
+ * 较粗缩放的网格点是较细缩放网格点的子集, 重叠部分直接从采样缓存中取较细一层的结果, 不再重新采样。
  */
 public class ExplorerMapCache {
 
-    private static final int SCALE_VALUE = 8; // FAR scale
+    // 旧版只缓存 FAR, 其缓存键不带缩放后缀
+    private static final MapView.Scale DEFAULT_SCALE = MapView.Scale.FAR;
+    private static final int PICK_ATTEMPTS = 8;
+    private static final String STORE_FILE = "maps.bin";
+    private static final String DEMAND_FILE = "demand.yml";
+    // 分配结果中表示冷门池, 深度为 0, 再被请求时恢复最低深度
+    private static final int COLD = -1;
     private static final Random random = new Random();
 
     private final StructuresFinder plugin;
     private final File cacheFolder;
-    private final ConcurrentHashMap<String, CachedMapData> cache = new ConcurrentHashMap<>();
-    private final Set<String> regenerating = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, MapPool> pools = new ConcurrentHashMap<>();
+    private final DemandTracker demand;
+    // 按请求频率分配的池深度, null 表示使用配置深度
+    private volatile Map<String, Integer> allocation;
+    private volatile MapCacheStore store;
+
+    /**
+     * 单个地图池的统计信息。
+     */
+    public record PoolStats(String key, int size, int depth, int pending, long hits, long empties, double demand) {
+    }
 
     public ExplorerMapCache(StructuresFinder plugin) {
         this.plugin = plugin;
@@ -36,29 +71,66 @@ public class ExplorerMapCache {
         if (!cacheFolder.exists()) {
             cacheFolder.mkdirs();
         }
+        this.demand = new DemandTracker(new File(cacheFolder, DEMAND_FILE));
     }
 
-    private String getCacheKey(String worldName, String structureType) {
-        return worldName + "_" + structureType;
+    static String getCacheKey(String worldName, String structureType, boolean notCleared, MapView.Scale scale) {
+        return worldName + "_" + structureType + (notCleared ? "_notclear" : "")
+                + (scale == DEFAULT_SCALE ? "" : "@" + scale.name().toLowerCase(Locale.ROOT));
     }
 
     /**
-     * 从文件加载所有缓存。
+     * 打开磁盘缓存并登记所有有效条目。地形数据在发放时才从内存映射文件读取。
+     * 首次启动时会把旧版 YAML 缓存迁移到二进制文件。在异步线程中调用, 完成前的请求按未命中处理。
      */
     public void loadFromDisk() {
-        plugin.getLogger().info("[缓存] 从磁盘加载缓存...");
+        DebugLogger.info("[缓存] 从磁盘加载缓存...");
+        demand.load();
+        MapCacheStore opened;
+        try {
+            opened = MapCacheStore.open(new File(cacheFolder, STORE_FILE), plugin.getLogger(),
+                    ExplorerMapCreator.getTerrainStep());
+        } catch (IOException e) {
+            DebugLogger.error("[缓存] 无法打开缓存文件, 仅使用内存缓存", e);
+            return;
+        }
+
+        // 迁移和登记完成前不公开 store, 否则期间写入的地图会被 readAll 再登记一次
+        migrateYamlCache(opened);
+
+        Map<Long, MapView.Scale> scales = new HashMap<>();
+        for (MapView.Scale scale : MapView.Scale.values()) {
+            scales.put(fingerprint(scale), scale);
+        }
+        List<CachedMapData> entries = opened.readAll(scales);
+        for (CachedMapData entry : entries) {
+            // 未清理结构的地图优先补满 notclear 分区, 发放时会再次检查是否已被清理
+            String worldName = entry.structure().worldName();
+            String structureType = entry.structure().structureType();
+            MapPool notClearedPool = pool(worldName, structureType, true, entry.scale());
+            boolean notCleared = !entry.structure().cleared()
+                    && notClearedPool.size() < plugin.getNotClearedPoolDepth(worldName, structureType);
+            (notCleared ? notClearedPool : pool(worldName, structureType, false, entry.scale())).offer(entry);
+        }
+        store = opened;
+        DebugLogger.info("[缓存] 已登记 " + entries.size() + " 个缓存条目");
+    }
+
+    /**
+     * 将旧版每条一个 YAML 文件的缓存写入二进制文件, 然后删除 YAML 文件。
+     */
+    private void migrateYamlCache(MapCacheStore store) {
         File[] files = cacheFolder.listFiles((dir, name) -> name.endsWith(".yml"));
         if (files == null || files.length == 0) {
-            plugin.getLogger().info("[缓存] 未找到缓存文件");
             return;
         }
 
-        plugin.getLogger().info("[缓存] 发现 " + files.length + " 个缓存文件");
+        DebugLogger.info("[缓存] 发现 " + files.length + " 个旧版缓存文件, 开始迁移");
+        long fingerprint = fingerprint(DEFAULT_SCALE);
+        int migrated = 0;
         for (File file : files) {
             try {
                 YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
-                String key = file.getName().replace(".yml", "");
-
                 String worldName = yaml.getString("worldName");
                 String structureType = yaml.getString("structureType");
                 String schematicName = yaml.getString("schematicName");
@@ -71,186 +143,632 @@ public class ExplorerMapCache {
                 String terrainBase64 = yaml.getString("terrainData");
 
                 if (worldName == null || terrainBase64 == null) {
-                    plugin.getLogger().warning("[缓存] 无效的缓存文件: " + file.getName());
-                    continue;
+                    DebugLogger.warn("[缓存] 无效的缓存文件: " + file.getName());
+                } else {
+                    TerrainGrid terrain = ExplorerMapCreator.compressTerrain(
+                            Base64.getDecoder().decode(terrainBase64), plugin.getSampleResolution());
+                    StructureData structure = new StructureData(worldName, x, y, z, schematicName, structureType, cleared);
+                    if (terrain != null && store.write(new CachedMapData(structure, DEFAULT_SCALE, terrain, centerX, centerZ), fingerprint) >= 0) {
+                        migrated++;
+                    }
                 }
-
-                byte[] terrainData = Base64.getDecoder().decode(terrainBase64);
-                StructureData structure = new StructureData(worldName, x, y, z, schematicName, structureType, cleared);
-                CachedMapData cachedMap = new CachedMapData(structure, terrainData, centerX, centerZ);
-
-                cache.put(key, cachedMap);
-                plugin.getLogger().info("[缓存] 已加载: " + key + " -> " + schematicName + " 坐标(" + x + ", " + z + ")");
-
+                file.delete();
             } catch (Exception e) {
-                plugin.getLogger().log(Level.WARNING, "[缓存] 加载失败: " + file.getName(), e);
+                DebugLogger.warn("[缓存] 迁移失败: " + file.getName(), e);
             }
         }
+        DebugLogger.info("[缓存] 已迁移 " + migrated + " 个缓存条目");
+    }
+
+    private MapPool pool(String worldName, String structureType, boolean notCleared, MapView.Scale scale) {
+        return pools.computeIfAbsent(getCacheKey(worldName, structureType, notCleared, scale),
+                k -> new MapPool(k, worldName, structureType, notCleared, scale));
+    }
+
+    private static long fingerprint(MapView.Scale scale) {
+        return ExplorerMapCreator.getTerrainFingerprint(ExplorerMapCreator.getScaleValue(scale));
     }
 
     /**
-     * 保存单个缓存到文件。
+     * 池的目标深度: 按请求频率分配的深度, 还没有分配时为配置深度。
      */
-    private void saveToDisk(String key, CachedMapData data) {
-        File file = new File(cacheFolder, key + ".yml");
-        YamlConfiguration yaml = new YamlConfiguration();
-
-        yaml.set("worldName", data.structure().worldName());
-        yaml.set("structureType", data.structure().structureType());
-        yaml.set("schematicName", data.structure().schematicName());
-        yaml.set("x", data.structure().x());
-        yaml.set("y", data.structure().y());
-        yaml.set("z", data.structure().z());
-        yaml.set("cleared", data.structure().cleared());
-        yaml.set("centerX", data.centerX());
-        yaml.set("centerZ", data.centerZ());
-        yaml.set("terrainData", Base64.getEncoder().encodeToString(data.terrainData()));
+    private int depth(MapPool pool) {
+        int configured = configuredDepth(pool);
+        Map<String, Integer> allocated = allocation;
+        if (allocated == null || configured == 0
+                || plugin.hasPoolDepthOverride(pool.worldName(), pool.structureType(), pool.notCleared())) {
+            return configured;
+        }
+        String key = pool.key();
+        Integer depth = allocated.get(key);
+        // 上次分配之后才出现的池, 或冷却后又被请求的池, 先给最低深度
+        if (depth == null || depth == COLD
+                && demand.rate(key, System.currentTimeMillis(), plugin.getDemandHalfLifeMillis()) >= plugin.getDemandColdThreshold()) {
+            return Math.min(configured, plugin.getDemandMinDepth());
+        }
+        return Math.max(0, depth);
+    }
+
+    private int configuredDepth(MapPool pool) {
+        return pool.notCleared()
+                ? plugin.getNotClearedPoolDepth(pool.worldName(), pool.structureType())
+                : plugin.getPoolDepth(pool.worldName(), pool.structureType());
+    }
 
+    /**
+     * 保存单个缓存到磁盘缓存文件。紧凑网格很小, 保存后仍常驻内存。
+     *
+     * @return 带有磁盘槽位的条目, 保存失败时返回原条目
+     */
+    private CachedMapData saveToDisk(String key, CachedMapData data) {
+        if (store == null) {
+            return data;
+        }
         try {
-            yaml.save(file);
+            int slot = store.write(data, fingerprint(data.scale()));
+            if (slot >= 0) {
+                return new CachedMapData(data.structure(), data.scale(), data.terrain(), data.centerX(), data.centerZ(), slot);
+            }
+            DebugLogger.warn("[缓存] 名称过长, 仅保存在内存: " + key);
         } catch (IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "[缓存] 保存失败: " + key, e);
+            DebugLogger.error("[缓存] 保存失败: " + key, e);
+        }
+        return data;
+    }
+
+    /**
+     * 读取条目的地形数据并释放其磁盘槽位。
+     *
+     * @return 包含地形数据的条目, 读取失败时返回 null
+     */
+    private CachedMapData hydrate(CachedMapData data) {
+        if (data.slot() < 0 || store == null) {
+            return data.terrain() != null ? data : null;
         }
+        TerrainGrid terrain = data.terrain() != null ? data.terrain() : store.readTerrain(data.slot());
+        store.free(data.slot());
+        return terrain != null ? new CachedMapData(data.structure(), data.scale(), terrain, data.centerX(), data.centerZ()) : null;
     }
 
     /**
-     * 获取缓存的地图数据。
+     * 关闭磁盘缓存文件。插件关闭时调用。
      */
-    public CachedMapData get(String worldName, String structureType) {
-        String key = getCacheKey(worldName, structureType);
-        CachedMapData data = cache.get(key);
+    public void shutdown() {
+        demand.save();
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * 从池中取出一张缓存地图, 每张地图只会被取出一次, 取出后若低于低水位则在后台补充。
+     * notCleared 为 true 时从 notclear 分区取, 并跳过生成后已被清理的结构。
+     */
+    public CachedMapData get(String worldName, String structureType, boolean notCleared, MapView.Scale scale) {
+        String key = getCacheKey(worldName, structureType, notCleared, scale);
+        MapPool pool = pools.get(key);
+        if (pool == null) {
+            countRequest(worldName, structureType, notCleared, scale, "miss");
+            DebugLogger.warn("[缓存] 未命中: " + key);
+            if (StructureDataLoader.getAvailableTypes(worldName).contains(structureType)) {
+                MapPool created = pool(worldName, structureType, notCleared, scale);
+                demand.record(key, created, plugin.getDemandHalfLifeMillis());
+                refill(created);
+            }
+            return null;
+        }
+        demand.record(key, pool, plugin.getDemandHalfLifeMillis());
+
+        // 跳过无法读取地形或已被清理的条目, 直到取到可用的地图或池为空
+        CachedMapData data = null;
+        CachedMapData polled;
+        while (data == null && (polled = pool.poll()) != null) {
+            String schematic = polled.structure().schematicName();
+            CachedMapData hydrated = hydrate(polled);
+            if (hydrated == null) {
+                DebugLogger.warn("[缓存] 地形数据无法读取, 丢弃: " + key + " -> " + schematic);
+            } else if (notCleared && isClearedNow(hydrated.structure())) {
+                DebugLogger.debug(() -> "[缓存] 结构已被清理, 丢弃: " + key + " -> " + schematic);
+            } else {
+                data = hydrated;
+            }
+        }
+        pool.recordRequest(data != null);
+        countRequest(worldName, structureType, notCleared, scale, data != null ? "hit" : "empty");
         if (data != null) {
-            plugin.getLogger().info("[缓存] 命中: " + key + " -> " + data.structure().schematicName());
+            String schematic = data.structure().schematicName();
+            DebugLogger.debug(() -> "[缓存] 命中: " + key + " -> " + schematic + " (剩余 " + pool.size() + ")");
         } else {
-            plugin.getLogger().warning("[缓存] 未命中: " + key);
+            DebugLogger.warn("[缓存] 池已空: " + key);
+        }
+
+        if (pool.size() <= plugin.getPoolLowWatermark()) {
+            refill(pool);
         }
         return data;
     }
 
+    private static boolean isClearedNow(StructureData structure) {
+        StructureData current = StructureDataLoader.findStructure(structure.worldName(), structure.x(), structure.z());
+        return current != null && current.cleared();
+    }
+
     /**
-     * 异步生成新的缓存并补充。
+     * 将一个地图池补充到目标深度。没有未清理结构时不补充 notclear 分区。
+     *
+     * @return 新加入生成队列的数量
      */
-    public void regenerateAsync(String worldName, String structureType) {
-        String key = getCacheKey(worldName, structureType);
+    private int refill(MapPool pool) {
+        String key = pool.key();
+        int depth = depth(pool);
+        if (pool.notCleared() && depth > 0 && missing(pool) <= 0) {
+            return 0;
+        }
 
-        // 防止重复生成
-        if (!regenerating.add(key)) {
-            plugin.getLogger().info("[缓存] 跳过 (正在生成中): " + key);
-            return;
+        int queued = 0;
+        while (pool.tryReserve(depth)) {
+            regenerateAsync(pool);
+            queued++;
+        }
+        if (queued > 0) {
+            int count = queued;
+            DebugLogger.debug(() -> "[缓存] 已加入生成队列: " + key + " x" + count + " (当前 " + pool.size() + "/" + depth + ")");
         }
+        return queued;
+    }
 
-        plugin.getLogger().info("[缓存] 已加入生成队列: " + key);
+    /**
+     * 移除结构已被删除或清理的地图并补充受影响的池。被删除的结构从所有分区移除,
+     * 被清理的结构只从 notclear 分区移除, 普通分区本就包含已清理的结构。
+     * 在结构数据刷新线程中调用。
+     *
+     * @return 移除的地图数量
+     */
+    public int evict(StructureChanges changes) {
+        Set<Long> removed = coordinateKeys(changes.removed());
+        Set<Long> cleared = coordinateKeys(changes.cleared());
+        if (removed.isEmpty() && cleared.isEmpty()) {
+            return 0;
+        }
 
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            try {
-                long startTime = System.currentTimeMillis();
-                plugin.getLogger().info("[缓存] 开始生成: " + key);
-
-                // 随机选择一个该类型的结构
-                StructureData structure = StructureDataLoader.getRandomStructureByType(worldName, structureType, false);
-                if (structure == null) {
-                    plugin.getLogger().warning("[缓存] 未找到结构: " + key);
-                    return;
+        int evicted = 0;
+        for (MapPool pool : pools.values()) {
+            if (!pool.worldName().equals(changes.worldName())) {
+                continue;
+            }
+            List<CachedMapData> stale = pool.removeIf(data -> {
+                long key = coordinateKey(data.structure());
+                return removed.contains(key) || (pool.notCleared() && cleared.contains(key));
+            });
+            if (stale.isEmpty()) {
+                continue;
+            }
+            for (CachedMapData data : stale) {
+                if (data.slot() >= 0 && store != null) {
+                    store.free(data.slot());
                 }
-                plugin.getLogger().info("[缓存] 选中结构: " + structure.schematicName() + " 坐标(" + structure.x() + ", " + structure.z() + ")");
+            }
+            evicted += stale.size();
+            DebugLogger.info("[缓存] 结构已变更, 移除 " + stale.size() + " 张地图: " + pool.key());
+            refill(pool);
+        }
+        return evicted;
+    }
 
-                World world = Bukkit.getWorld(worldName);
-                if (world == null) {
-                    plugin.getLogger().warning("[缓存] 世界未加载: " + worldName);
-                    return;
-                }
+    private static Set<Long> coordinateKeys(List<StructureData> structures) {
+        Set<Long> keys = new HashSet<>();
+        for (StructureData structure : structures) {
+            keys.add(coordinateKey(structure));
+        }
+        return keys;
+    }
 
-                // 计算随机偏移的地图中心
-                int maxOffset = 60 * SCALE_VALUE;
-                int offsetX = random.nextInt(maxOffset * 2 + 1) - maxOffset;
-                int offsetZ = random.nextInt(maxOffset * 2 + 1) - maxOffset;
-                int centerX = structure.x() - offsetX;
-                int centerZ = structure.z() - offsetZ;
-                plugin.getLogger().info("[缓存] 地图中心: (" + centerX + ", " + centerZ + ") 偏移: (" + offsetX + ", " + offsetZ + ")");
-
-                // 计算地形数据
-                plugin.getLogger().info("[缓存] 正在计算地形数据...");
-                byte[] terrainData = ExplorerMapCreator.computeTerrainData(world, centerX, centerZ, SCALE_VALUE);
-                if (terrainData == null) {
-                    plugin.getLogger().warning("[缓存] 地形计算失败: " + key);
-                    return;
+    private static long coordinateKey(StructureData structure) {
+        return ((long) structure.x() << 32) | (structure.z() & 0xffffffffL);
+    }
+
+    /**
+     * 在地形线程池的低优先级队列中生成一张新地图放入池中。调用前需已预留名额。
+     * 同一 world/type/分区下其他缩放的池缺图时, 一并为同一结构生成, 从最精细的缩放开始,
+     * 较粗的缩放会复用较细缩放已采样的网格点。
+     *
+     * @return 这个池的地图生成结束时完成, 值为是否成功放入池中
+     */
+    private CompletableFuture<Boolean> regenerateAsync(MapPool pool) {
+        String worldName = pool.worldName();
+        String structureType = pool.structureType();
+        String key = pool.key();
+
+        List<MapPool> levels = new ArrayList<>();
+        levels.add(pool);
+        for (MapPool sibling : pools.values()) {
+            if (sibling != pool && sibling.worldName().equals(worldName) && sibling.structureType().equals(structureType)
+                    && sibling.notCleared() == pool.notCleared() && missing(sibling) > 0 && sibling.tryReserve(depth(sibling))) {
+                levels.add(sibling);
+            }
+        }
+        levels.sort(Comparator.comparingInt(level -> ExplorerMapCreator.getScaleValue(level.scale())));
+
+        // 随机选择一个该类型的结构, 尽量避开池中已有的结构
+        StructureData structure = null;
+        for (int attempt = 0; attempt < PICK_ATTEMPTS; attempt++) {
+            structure = StructureDataLoader.getRandomStructureByType(worldName, structureType, pool.notCleared());
+            if (structure == null || !pool.contains(structure.x(), structure.z())) {
+                break;
+            }
+        }
+        World world = Bukkit.getWorld(worldName);
+        if (structure == null || world == null) {
+            DebugLogger.warn(structure == null ? "[缓存] 未找到结构: " + key : "[缓存] 世界未加载: " + worldName);
+            for (MapPool level : levels) {
+                level.release();
+            }
+            return CompletableFuture.completedFuture(false);
+        }
+
+        StructureData chosen = structure;
+        DebugLogger.debug(() -> "[缓存] 开始生成: " + key + " -> " + chosen.schematicName()
+                + " 坐标(" + chosen.x() + ", " + chosen.z() + ")"
+                + (levels.size() > 1 ? " 共 " + levels.size() + " 个缩放" : ""));
+
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (MapPool level : levels) {
+            // 每个缩放按自己的比例随机偏移, 和即时生成的地图一样
+            int scaleValue = ExplorerMapCreator.getScaleValue(level.scale());
+            int centerX = structure.x() - ExplorerMapCreator.randomOffset(scaleValue);
+            int centerZ = structure.z() - ExplorerMapCreator.randomOffset(scaleValue);
+            chain = chain.thenCompose(ignored -> generate(level, world, chosen, centerX, centerZ)
+                    .thenAccept(ok -> {
+                        if (level == pool) {
+                            done.complete(ok);
+                        }
+                    }));
+        }
+        // 出现意外异常时也要结束
+        chain.whenComplete((ignored, error) -> done.complete(false));
+        return done;
+    }
+
+    /**
+     * 计算一个池的地形并放入池中, 结束后释放预留的名额。
+     *
+     * @return 结束时完成, 值为是否成功放入池中, 不会异常完成
+     */
+    private CompletableFuture<Boolean> generate(MapPool pool, World world, StructureData structure, int centerX, int centerZ) {
+        String key = pool.key();
+        long startTime = System.currentTimeMillis();
+        CompletableFuture<TerrainGrid> terrain;
+        try {
+            terrain = ExplorerMapCreator.computeTerrainData(world, centerX, centerZ,
+                    ExplorerMapCreator.getScaleValue(pool.scale()), TerrainExecutor.Priority.LOW);
+        } catch (RuntimeException e) {
+            terrain = CompletableFuture.failedFuture(e);
+        }
+
+        return terrain.handle((terrainData, error) -> {
+            try {
+                if (error != null) {
+                    countRegeneration(pool.worldName(), pool.structureType(), "failed");
+                    DebugLogger.warn("[缓存] 地形计算失败: " + key + " (" + error.getMessage() + ")");
+                    return false;
                 }
 
                 // 存入缓存
-                CachedMapData cachedMap = new CachedMapData(structure, terrainData, centerX, centerZ);
-                cache.put(key, cachedMap);
-                saveToDisk(key, cachedMap);
+                CachedMapData cachedMap = new CachedMapData(structure, pool.scale(), terrainData, centerX, centerZ);
+                pool.offer(saveToDisk(key, cachedMap));
+                countRegeneration(pool.worldName(), pool.structureType(), "ok");
 
                 long elapsed = System.currentTimeMillis() - startTime;
-                plugin.getLogger().info("[缓存] 生成完成: " + key + " 耗时 " + elapsed + "ms");
+                TerrainExecutor.Stats stats = plugin.getTerrainExecutor().getStats();
+                DebugLogger.debug(() -> "[缓存] 生成完成: " + key + " 耗时 " + elapsed + "ms (当前 " + pool.size()
+                        + ") 地形队列: 运行 " + stats.active() + ", 等待 " + stats.queuedHigh() + "/" + stats.queuedLow()
+                        + ", 已完成 " + stats.completed());
+                return true;
+            } catch (RuntimeException e) {
+                DebugLogger.warn("[缓存] 保存失败: " + key + " (" + e.getMessage() + ")");
+                return false;
             } finally {
-                regenerating.remove(key);
+                pool.release();
             }
         });
     }
 
     /**
-     * 初始化所有缓存。服务器启动时调用。
+     * 按世界/类型记录一次取图结果 (hit, empty, miss)。
      */
-    public void initializeAll() {
+    private static void countRequest(String worldName, String structureType, boolean notCleared, MapView.Scale scale,
+                                     String result) {
+        Metrics.counter("structuresfinder_cache_requests_total", "Cached map requests by result (hit, empty, miss).",
+                "world", worldName, "type", structureType, "partition", notCleared ? "notclear" : "any",
+                "scale", scale.name().toLowerCase(Locale.ROOT), "result", result).increment();
+    }
+
+    /**
+     * 按世界/类型记录一次后台生成结果 (ok, failed)。
+     */
+    private static void countRegeneration(String worldName, String structureType, String result) {
+        Metrics.counter("structuresfinder_cache_regenerations_total", "Cached maps generated in the background by result.",
+                "world", worldName, "type", structureType, "result", result).increment();
+    }
+
+    /**
+     * 列出预热要生成的地图, 每项对应池中缺少的一张, 只包含 cache.warmup.scales 中的缩放。
+     * 按轮次排列: 先给每个池补第一张, 再补第二张, 同一轮内请求多的池在前,
+     * 请求一样多时普通分区先于 notclear 分区。列出前会按请求频率重新分配深度并移除多余的地图。
+     */
+    List<MapPool> planWarmup() {
         List<String> worlds = StructureDataLoader.getAvailableWorlds();
-        plugin.getLogger().info("[缓存] ========== 初始化缓存 ==========");
-        plugin.getLogger().info("[缓存] 可用世界: " + worlds);
-        plugin.getLogger().info("[缓存] 当前缓存数量: " + cache.size());
-
-        int missing = 0;
-        for (String worldName : worlds) {
-            Set<String> types = StructureDataLoader.getAvailableTypes(worldName);
-            plugin.getLogger().info("[缓存] 世界 '" + worldName + "' 的结构类型: " + types);
-
-            for (String type : types) {
-                String key = getCacheKey(worldName, type);
-                if (!cache.containsKey(key)) {
-                    plugin.getLogger().info("[缓存] 缺失: " + key + " -> 加入生成队列");
-                    regenerateAsync(worldName, type);
-                    missing++;
-                } else {
-                    plugin.getLogger().info("[缓存] 已存在: " + key);
+        DebugLogger.info("[缓存] 可用世界: " + worlds + ", 当前缓存数量: " + getTotalSize());
+
+        List<MapPool> candidates = new ArrayList<>();
+        List<MapView.Scale> scales = plugin.getWarmupScales();
+        for (boolean notCleared : new boolean[]{false, true}) {
+            for (String worldName : worlds) {
+                for (String type : StructureDataLoader.getAvailableTypes(worldName)) {
+                    for (MapView.Scale scale : scales) {
+                        candidates.add(pool(worldName, type, notCleared, scale));
+                    }
+                }
+            }
+        }
+        updateAllocation();
+        trimAll();
+
+        long now = System.currentTimeMillis();
+        long halfLife = plugin.getDemandHalfLifeMillis();
+        candidates.sort(Comparator.comparingDouble((MapPool pool) -> -demandRate(pool, now, halfLife)));
+
+        List<MapPool> targets = new ArrayList<>();
+        List<Integer> missing = new ArrayList<>();
+        for (MapPool pool : candidates) {
+            int count = missing(pool);
+            if (count > 0) {
+                targets.add(pool);
+                missing.add(count);
+            } else {
+                DebugLogger.debug(() -> "[缓存] 已满: " + pool.key() + " (" + pool.size() + ")");
+            }
+        }
+
+        List<MapPool> plan = new ArrayList<>();
+        for (int round = 0; !targets.isEmpty(); round++) {
+            for (int i = targets.size() - 1; i >= 0; i--) {
+                if (missing.get(i) <= round) {
+                    targets.remove(i);
+                    missing.remove(i);
+                }
+            }
+            for (MapPool pool : targets) {
+                plan.add(pool);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * 按请求频率重新分配各池深度, 移除超出深度的地图, 再按请求多少的顺序补充。
+     * 主线程定时调用。
+     */
+    public void rebalance() {
+        updateAllocation();
+        trimAll();
+
+        long now = System.currentTimeMillis();
+        long halfLife = plugin.getDemandHalfLifeMillis();
+        List<MapPool> ordered = new ArrayList<>(pools.values());
+        ordered.sort(Comparator.comparingDouble((MapPool pool) -> -demandRate(pool, now, halfLife)));
+        int queued = 0;
+        for (MapPool pool : ordered) {
+            queued += refill(pool);
+        }
+        if (queued > 0) {
+            DebugLogger.info("[缓存] 重新分配深度后补充 " + queued + " 张地图");
+        }
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, demand::save);
+    }
+
+    /**
+     * 在 cache.demand.max-maps 的总预算内按请求频率分配各池深度。
+     * 每个仍有请求的池至少分到 min-depth, 余下的按请求占比分配, 单池不超过 max-depth;
+     * 长期没有请求的冷门池分到 0。配置了单独深度或深度为 0 的池不参与分配, 但占用预算。
+     * 还没有任何请求记录时使用配置深度。
+     */
+    private void updateAllocation() {
+        long now = System.currentTimeMillis();
+        long halfLife = plugin.getDemandHalfLifeMillis();
+        if (!plugin.isDemandSizingEnabled() || !demand.hasData(now, halfLife)) {
+            allocation = null;
+            return;
+        }
+
+        int budget = plugin.getDemandMaxMaps();
+        int minDepth = plugin.getDemandMinDepth();
+        int maxDepth = plugin.getDemandMaxDepth();
+        double coldThreshold = plugin.getDemandColdThreshold();
+        long coldAfter = plugin.getDemandColdAfterMillis();
+
+        Map<String, Integer> next = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        List<Double> rates = new ArrayList<>();
+        for (Map.Entry<String, MapPool> entry : pools.entrySet()) {
+            String key = entry.getKey();
+            MapPool pool = entry.getValue();
+            int configured = configuredDepth(pool);
+            if (configured == 0 || plugin.hasPoolDepthOverride(pool.worldName(), pool.structureType(), pool.notCleared())) {
+                budget -= configured;
+                continue;
+            }
+            // 从未被请求的池从此刻开始计算冷却时间
+            DemandTracker.Counter counter = demand.counter(key, pool, now);
+            double rate = counter.rate(now, halfLife);
+            if (rate < coldThreshold && now - counter.since >= coldAfter) {
+                next.put(key, COLD);
+                continue;
+            }
+            keys.add(key);
+            rates.add(rate);
+        }
+
+        // 请求多的池先拿到最低深度
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> -rates.get(i)));
+
+        int[] depths = new int[keys.size()];
+        boolean[] full = new boolean[keys.size()];
+        double total = 0;
+        for (int i : order) {
+            depths[i] = Math.min(minDepth, Math.max(0, budget));
+            budget -= depths[i];
+            full[i] = depths[i] >= maxDepth;
+            total += full[i] ? 0 : rates.get(i);
+        }
+
+        // 余下的按请求占比分配, 达到上限的池分不完的部分下一轮再分给其他池
+        while (budget > 0 && total > 0) {
+            int share = budget;
+            int given = 0;
+            double nextTotal = 0;
+            for (int i : order) {
+                if (full[i]) {
+                    continue;
+                }
+                int extra = Math.min((int) (share * rates.get(i) / total), maxDepth - depths[i]);
+                depths[i] += extra;
+                given += extra;
+                full[i] = depths[i] >= maxDepth;
+                nextTotal += full[i] ? 0 : rates.get(i);
+            }
+            budget -= given;
+            total = nextTotal;
+            if (given == 0) {
+                // 取整剩下的名额逐个分给请求最多的池
+                for (int i : order) {
+                    if (budget > 0 && !full[i] && rates.get(i) > 0) {
+                        depths[i]++;
+                        budget--;
+                    }
+                }
+                break;
+            }
+        }
+
+        for (int i = 0; i < depths.length; i++) {
+            next.put(keys.get(i), depths[i]);
+        }
+        allocation = next;
+    }
+
+    /**
+     * 移除超出深度的地图, 冷门池的地图全部移除; 请求不多的池只保留磁盘上的地形。
+     */
+    private void trimAll() {
+        long now = System.currentTimeMillis();
+        long halfLife = plugin.getDemandHalfLifeMillis();
+        for (MapPool pool : pools.values()) {
+            String key = pool.key();
+            int excess = pool.size() - depth(pool);
+            if (excess > 0) {
+                int[] left = {excess};
+                List<CachedMapData> removed = pool.removeIf(data -> left[0]-- > 0);
+                for (CachedMapData data : removed) {
+                    if (data.slot() >= 0 && store != null) {
+                        store.free(data.slot());
+                    }
+                }
+                DebugLogger.info("[缓存] 深度降为 " + depth(pool) + ", 移除 " + removed.size() + " 张地图: " + key);
+            }
+            if (allocation != null && demand.rate(key, now, halfLife) < 1.0) {
+                int spilled = pool.spill();
+                if (spilled > 0) {
+                    DebugLogger.debug(() -> "[缓存] 请求较少, " + spilled + " 张地图的地形只保留在磁盘: " + key);
                 }
             }
         }
+    }
+
+    private double demandRate(MapPool pool, long now, long halfLife) {
+        return demand.rate(pool.key(), now, halfLife);
+    }
 
-        plugin.getLogger().info("[缓存] ========== 初始化完成 ==========");
-        plugin.getLogger().info("[缓存] 共 " + missing + " 个缓存待生成");
+    /**
+     * 池距离目标深度还差多少张 (不计正在生成的)。没有未清理结构时 notclear 分区不缺。
+     */
+    private int missing(MapPool pool) {
+        if (pool.notCleared()) {
+            StructureIndex index = StructureDataLoader.getIndex(pool.worldName());
+            if (index == null || index.countUncleared(pool.structureType()) == 0) {
+                return 0;
+            }
+        }
+        return depth(pool) - pool.size() - pool.pending();
     }
 
     /**
-     * 检查某个组合是否有缓存。
+     * 为池预留一个名额并在后台生成一张地图。
+     *
+     * @return 生成结束时完成, 值为是否成功放入池中; 池已满时返回 null
      */
-    public boolean has(String worldName, String structureType) {
-        return cache.containsKey(getCacheKey(worldName, structureType));
+    CompletableFuture<Boolean> warm(MapPool pool) {
+        return pool.tryReserve(depth(pool)) ? regenerateAsync(pool) : null;
     }
 
     /**
-     * 获取某个世界所有已缓存的类型。
+     * 获取某个世界某个分区某个缩放所有已缓存 (池非空) 的类型。
      */
-    public List<String> getCachedTypes(String worldName) {
-        List<String> types = new java.util.ArrayList<>();
-        String prefix = worldName + "_";
-        for (String key : cache.keySet()) {
-            if (key.startsWith(prefix)) {
-                types.add(key.substring(prefix.length()));
+    public List<String> getCachedTypes(String worldName, boolean notCleared, MapView.Scale scale) {
+        List<String> types = new ArrayList<>();
+        for (MapPool pool : pools.values()) {
+            if (pool.worldName().equals(worldName) && pool.notCleared() == notCleared && pool.scale() == scale
+                    && pool.size() > 0) {
+                types.add(pool.structureType());
             }
         }
         return types;
     }
 
     /**
-     * 随机获取某个世界的一个缓存。
+     * 随机获取某个世界某个分区某个缩放的一个缓存。
      */
-    public CachedMapData getRandomCached(String worldName) {
-        List<String> types = getCachedTypes(worldName);
+    public CachedMapData getRandomCached(String worldName, boolean notCleared, MapView.Scale scale) {
+        List<String> types = getCachedTypes(worldName, notCleared, scale);
         if (types.isEmpty()) {
-            plugin.getLogger().warning("[缓存] 世界 '" + worldName + "' 没有任何缓存");
+            DebugLogger.warn("[缓存] 世界 '" + worldName + "' 没有任何缓存");
             return null;
         }
         String randomType = types.get(random.nextInt(types.size()));
-        plugin.getLogger().info("[缓存] 随机选择类型: " + randomType);
-        return get(worldName, randomType);
+        DebugLogger.debug(() -> "[缓存] 随机选择类型: " + randomType);
+        return get(worldName, randomType, notCleared, scale);
+    }
+
+    /**
+     * 所有地图池中的地图总数。
+     */
+    public int getTotalSize() {
+        int total = 0;
+        for (MapPool pool : pools.values()) {
+            total += pool.size();
+        }
+        return total;
+    }
+
+    /**
+     * 获取所有地图池的统计信息。
+     */
+    public List<PoolStats> getPoolStats() {
+        List<PoolStats> stats = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        long halfLife = plugin.getDemandHalfLifeMillis();
+        for (Map.Entry<String, MapPool> entry : pools.entrySet()) {
+            String key = entry.getKey();
+            MapPool pool = entry.getValue();
+            int depth = depth(pool);
+            stats.add(new PoolStats(key, pool.size(), depth, pool.pending(), pool.hits(), pool.empties(),
+                    demand.rate(key, now, halfLife)));
+        }
+        return stats;
     }
 }
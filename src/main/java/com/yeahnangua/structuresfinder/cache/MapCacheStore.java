@@ -0,0 +1,310 @@
+package com.yeahnangua.structuresfinder.cache;
+
+import com.yeahnangua.structuresfinder.data.StructureData;
+import com.yeahnangua.structuresfinder.map.TerrainGrid;
+import org.bukkit.map.MapView;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 预生成地图的二进制缓存文件, 通过内存映射按需读取。
+ *
+ * <p>文件由固定大小的头部和固定大小的槽位组成。每个槽位保存一张地图的结构信息、
+ * 配置指纹和紧凑地形网格, 槽位大小按配置的采样步长计算。加载时只读取结构信息,
+ * 地形数据在发放时才读取。
+ */
+class MapCacheStore {
+
+    private static final int MAGIC = 0x53464D43; // "SFMC"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int INITIAL_SLOTS = 64;
+
+    private static final byte STATE_FREE = 0;
+    private static final byte STATE_USED = 1;
+
+    private static final int STRING_AREA = 320;
+
+    // 槽位内偏移
+    private static final int OFF_STATE = 0;
+    private static final int OFF_FINGERPRINT = 1;
+    private static final int OFF_X = 9;
+    private static final int OFF_Y = 13;
+    private static final int OFF_Z = 17;
+    private static final int OFF_CENTER_X = 21;
+    private static final int OFF_CENTER_Z = 25;
+    private static final int OFF_CLEARED = 29;
+    private static final int OFF_STRINGS = 30;
+    private static final int OFF_TERRAIN_STEP = OFF_STRINGS + STRING_AREA;
+    private static final int OFF_TERRAIN_LENGTH = OFF_TERRAIN_STEP + 1;
+    private static final int OFF_TERRAIN = OFF_TERRAIN_LENGTH + 4;
+
+    private final File file;
+    private final Logger logger;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int terrainCapacity;
+    private final int slotSize;
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private MappedByteBuffer buffer;
+    private int slotCount;
+
+    private MapCacheStore(File file, Logger logger, RandomAccessFile raf, int step) {
+        this.file = file;
+        this.logger = logger;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.terrainCapacity = TerrainGrid.packedLength(step);
+        this.slotSize = OFF_TERRAIN + terrainCapacity;
+    }
+
+    /**
+     * 打开缓存文件。文件不存在、版本不符、已损坏或槽位大小与采样步长不符时重新创建。
+     * 步长不符时其中的地图指纹也不符, 本就无法使用。
+     *
+     * @param step 地形网格的采样步长, 更精细的网格无法保存
+     */
+    static MapCacheStore open(File file, Logger logger, int step) throws IOException {
+        MapCacheStore store = new MapCacheStore(file, logger, new RandomAccessFile(file, "rw"), step);
+        try {
+            if (!store.readHeader()) {
+                store.reset();
+            }
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private boolean readHeader() throws IOException {
+        long length = channel.size();
+        if (length < HEADER_SIZE) {
+            return false;
+        }
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        int magic = header.getInt(0);
+        int version = header.getInt(4);
+        int storedSlotSize = header.getInt(8);
+        int slots = header.getInt(12);
+        if (magic != MAGIC || version != VERSION || storedSlotSize <= OFF_TERRAIN || slots < 0
+                || length < HEADER_SIZE + (long) slots * storedSlotSize) {
+            logger.warning("[缓存] 缓存文件版本不符或已损坏, 重新创建: " + file.getName());
+            return false;
+        }
+        if (storedSlotSize != slotSize) {
+            logger.info("[缓存] 采样步长已变更, 重新创建: " + file.getName());
+            return false;
+        }
+        slotCount = slots;
+        map();
+        return true;
+    }
+
+    private void reset() throws IOException {
+        raf.setLength(0);
+        slotCount = INITIAL_SLOTS;
+        raf.setLength(HEADER_SIZE + (long) slotCount * slotSize);
+        map();
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, slotSize);
+        buffer.putInt(12, slotCount);
+        freeSlots.clear();
+        for (int slot = 0; slot < slotCount; slot++) {
+            freeSlots.add(slot);
+        }
+    }
+
+    private void map() throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotCount * slotSize);
+    }
+
+    private int offset(int slot) {
+        return HEADER_SIZE + slot * slotSize;
+    }
+
+    /**
+     * 读取所有槽位的结构信息 (不含地形数据)。指纹包含缩放, 按指纹确定每张地图的缩放,
+     * 不属于任何缩放当前指纹的槽位会被释放。
+     */
+    synchronized List<CachedMapData> readAll(Map<Long, MapView.Scale> scalesByFingerprint) {
+        List<CachedMapData> entries = new ArrayList<>();
+        freeSlots.clear();
+        int stale = 0;
+        int corrupt = 0;
+
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = offset(slot);
+            if (buffer.get(base + OFF_STATE) != STATE_USED) {
+                freeSlots.add(slot);
+                continue;
+            }
+            MapView.Scale scale = scalesByFingerprint.get(buffer.getLong(base + OFF_FINGERPRINT));
+            if (scale == null) {
+                buffer.put(base + OFF_STATE, STATE_FREE);
+                freeSlots.add(slot);
+                stale++;
+                continue;
+            }
+
+            int pos = base + OFF_STRINGS;
+            int end = pos + STRING_AREA;
+            String worldName = readString(pos, end);
+            pos = worldName != null ? pos + 2 + buffer.getShort(pos) : end;
+            String structureType = readString(pos, end);
+            pos = structureType != null ? pos + 2 + buffer.getShort(pos) : end;
+            String schematicName = readString(pos, end);
+            if (schematicName == null) {
+                // 长度字段损坏, 只丢弃这个槽位
+                buffer.put(base + OFF_STATE, STATE_FREE);
+                freeSlots.add(slot);
+                corrupt++;
+                continue;
+            }
+
+            StructureData structure = new StructureData(worldName,
+                    buffer.getInt(base + OFF_X), buffer.getInt(base + OFF_Y), buffer.getInt(base + OFF_Z),
+                    schematicName, structureType, buffer.get(base + OFF_CLEARED) != 0);
+            entries.add(new CachedMapData(structure, scale, null,
+                    buffer.getInt(base + OFF_CENTER_X), buffer.getInt(base + OFF_CENTER_Z), slot));
+        }
+
+        if (stale > 0) {
+            logger.info("[缓存] 丢弃 " + stale + " 个配置已变更的缓存条目");
+        }
+        if (corrupt > 0) {
+            logger.warning("[缓存] 丢弃 " + corrupt + " 个已损坏的缓存条目");
+        }
+        return entries;
+    }
+
+    /**
+     * 写入一张地图。
+     *
+     * @return 槽位编号, 字符串过长无法保存时返回 -1
+     */
+    synchronized int write(CachedMapData data, long fingerprint) throws IOException {
+        StructureData structure = data.structure();
+        byte[] world = structure.worldName().getBytes(StandardCharsets.UTF_8);
+        byte[] type = structure.structureType().getBytes(StandardCharsets.UTF_8);
+        byte[] schematic = structure.schematicName().getBytes(StandardCharsets.UTF_8);
+        byte[] terrain = data.terrain().packed();
+        if (6 + world.length + type.length + schematic.length > STRING_AREA || terrain.length > terrainCapacity) {
+            return -1;
+        }
+
+        if (freeSlots.isEmpty()) {
+            grow();
+        }
+        int slot = freeSlots.poll();
+        int base = offset(slot);
+
+        buffer.putLong(base + OFF_FINGERPRINT, fingerprint);
+        buffer.putInt(base + OFF_X, structure.x());
+        buffer.putInt(base + OFF_Y, structure.y());
+        buffer.putInt(base + OFF_Z, structure.z());
+        buffer.putInt(base + OFF_CENTER_X, data.centerX());
+        buffer.putInt(base + OFF_CENTER_Z, data.centerZ());
+        buffer.put(base + OFF_CLEARED, (byte) (structure.cleared() ? 1 : 0));
+        int pos = base + OFF_STRINGS;
+        pos = writeString(pos, world);
+        pos = writeString(pos, type);
+        writeString(pos, schematic);
+        buffer.put(base + OFF_TERRAIN_STEP, (byte) data.terrain().step());
+        buffer.putInt(base + OFF_TERRAIN_LENGTH, terrain.length);
+        buffer.put(base + OFF_TERRAIN, terrain);
+        // 最后标记为已使用, 写到一半时崩溃的槽位不会被读取
+        buffer.put(base + OFF_STATE, STATE_USED);
+        return slot;
+    }
+
+    /**
+     * 读取某个槽位的地形数据。
+     */
+    synchronized TerrainGrid readTerrain(int slot) {
+        if (slot < 0 || slot >= slotCount) {
+            return null;
+        }
+        int base = offset(slot);
+        if (buffer.get(base + OFF_STATE) != STATE_USED) {
+            return null;
+        }
+        int length = buffer.getInt(base + OFF_TERRAIN_LENGTH);
+        if (length < 0 || length > terrainCapacity) {
+            return null;
+        }
+        byte[] terrain = new byte[length];
+        buffer.get(base + OFF_TERRAIN, terrain);
+        return TerrainGrid.fromPacked(buffer.get(base + OFF_TERRAIN_STEP), terrain);
+    }
+
+    /**
+     * 释放槽位以便复用。
+     */
+    synchronized void free(int slot) {
+        if (slot < 0 || slot >= slotCount) {
+            return;
+        }
+        int base = offset(slot);
+        if (buffer.get(base + OFF_STATE) == STATE_USED) {
+            buffer.put(base + OFF_STATE, STATE_FREE);
+            freeSlots.add(slot);
+        }
+    }
+
+    private void grow() throws IOException {
+        int oldCount = slotCount;
+        slotCount = oldCount * 2;
+        buffer.force();
+        raf.setLength(HEADER_SIZE + (long) slotCount * slotSize);
+        map();
+        buffer.putInt(12, slotCount);
+        for (int slot = oldCount; slot < slotCount; slot++) {
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * 读取一个字符串, 长度超出 end 或为负时返回 null。
+     */
+    private String readString(int pos, int end) {
+        if (pos + 2 > end) {
+            return null;
+        }
+        int length = buffer.getShort(pos);
+        if (length < 0 || pos + 2 + length > end) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(pos + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int writeString(int pos, byte[] bytes) {
+        buffer.putShort(pos, (short) bytes.length);
+        buffer.put(pos + 2, bytes);
+        return pos + 2 + bytes.length;
+    }
+
+    synchronized void close() {
+        try {
+            if (buffer != null) {
+                buffer.force();
+            }
+            raf.close();
+        } catch (IOException e) {
+            logger.warning("[缓存] 关闭缓存文件失败: " + e.getMessage());
+        }
+    }
+}
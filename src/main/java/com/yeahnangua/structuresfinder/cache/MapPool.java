@@ -0,0 +1,153 @@
+package com.yeahnangua.structuresfinder.cache;
+
+import org.bukkit.map.MapView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * 某个 world/type/缩放 的预生成地图池。每张地图最多被取出一次。
+ * notCleared 分区只包含生成时尚未被清理的结构。
+ */
+class MapPool {
+
+    private final String key;
+    private final String worldName;
+    private final String structureType;
+    private final boolean notCleared;
+    private final MapView.Scale scale;
+    private final ConcurrentLinkedQueue<CachedMapData> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder empties = new LongAdder();
+
+    MapPool(String key, String worldName, String structureType, boolean notCleared, MapView.Scale scale) {
+        this.key = key;
+        this.worldName = worldName;
+        this.structureType = structureType;
+        this.notCleared = notCleared;
+        this.scale = scale;
+    }
+
+    String key() {
+        return key;
+    }
+
+    String worldName() {
+        return worldName;
+    }
+
+    String structureType() {
+        return structureType;
+    }
+
+    boolean notCleared() {
+        return notCleared;
+    }
+
+    MapView.Scale scale() {
+        return scale;
+    }
+
+    /**
+     * 取出一张地图, 池为空时返回 null。取出的地图可能被丢弃, 命中由 {@link #recordRequest} 统计。
+     */
+    CachedMapData poll() {
+        CachedMapData data = ready.poll();
+        if (data != null) {
+            size.decrementAndGet();
+        }
+        return data;
+    }
+
+    /**
+     * 记录一次取图结果: 发放了地图为命中, 否则为空池。
+     */
+    void recordRequest(boolean hit) {
+        (hit ? hits : empties).increment();
+    }
+
+    void offer(CachedMapData data) {
+        ready.offer(data);
+        size.incrementAndGet();
+    }
+
+    /**
+     * 预留一个生成名额, 已达到目标深度时返回 false。
+     */
+    boolean tryReserve(int depth) {
+        while (true) {
+            int current = pending.get();
+            if (size.get() + current >= depth) {
+                return false;
+            }
+            if (pending.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        pending.decrementAndGet();
+    }
+
+    /**
+     * 移除所有符合条件的地图。
+     *
+     * @return 被移除的地图
+     */
+    List<CachedMapData> removeIf(Predicate<CachedMapData> filter) {
+        List<CachedMapData> removed = new ArrayList<>();
+        for (CachedMapData data : ready) {
+            // 与 poll 并发时只有一方能移除成功
+            if (filter.test(data) && ready.remove(data)) {
+                size.decrementAndGet();
+                removed.add(data);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 释放已保存到磁盘的地图的内存地形, 发放时再从磁盘读取。
+     *
+     * @return 释放的数量
+     */
+    int spill() {
+        List<CachedMapData> resident = removeIf(data -> data.terrain() != null && data.slot() >= 0);
+        for (CachedMapData data : resident) {
+            offer(new CachedMapData(data.structure(), data.scale(), null, data.centerX(), data.centerZ(), data.slot()));
+        }
+        return resident.size();
+    }
+
+    boolean contains(int x, int z) {
+        for (CachedMapData data : ready) {
+            if (data.structure().x() == x && data.structure().z() == z) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    int pending() {
+        return pending.get();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long empties() {
+        return empties.sum();
+    }
+}
@@ -0,0 +1,154 @@
+package com.yeahnangua.structuresfinder.commands;
+
+import com.yeahnangua.structuresfinder.StructuresFinder;
+import com.yeahnangua.structuresfinder.data.StructureData;
+import com.yeahnangua.structuresfinder.map.ExplorerMapCreator;
+import com.yeahnangua.structuresfinder.map.TerrainExecutor;
+import com.yeahnangua.structuresfinder.util.DebugLogger;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapView;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Hands explorer maps to many players from one command.
+ *
+ * <p>Structures are drawn on the main thread, avoiding repeats while the index has enough.
+ * At most {@code batch.max-in-flight} terrain jobs are queued at once, so single requests
+ * still fit in the player lane; jobs the lane rejects are retried. Finished maps are given
+ * to the main-thread queue a few per tick and the sender gets a summary once all are handed out.
+ */
+final class BatchDistribution {
+
+    private static final int PICK_ATTEMPTS = 8;
+
+    private record Job(Player player, StructureData structure) {
+    }
+
+    private record Result(Job job, ExplorerMapCreator.PreparedMap map, Throwable error) {
+    }
+
+    private final StructuresFinder plugin;
+    private final CommandSender sender;
+    private final MapView.Scale scale;
+    private final ArrayDeque<Job> waiting = new ArrayDeque<>();
+    private final ConcurrentLinkedQueue<Result> finished = new ConcurrentLinkedQueue<>();
+    private final int maxInFlight;
+    private final int perTick;
+    private final long startTime = System.currentTimeMillis();
+    private int total;
+    private int inFlight;
+    private int given;
+    private int failed;
+    private int repeated;
+    private BukkitTask task;
+
+    BatchDistribution(StructuresFinder plugin, CommandSender sender, MapView.Scale scale) {
+        this.plugin = plugin;
+        this.sender = sender;
+        this.scale = scale;
+        this.maxInFlight = plugin.getBatchMaxInFlight();
+        this.perTick = plugin.getBatchMapsPerTick();
+    }
+
+    /**
+     * Draws a structure for every recipient and starts handing out maps.
+     *
+     * @param selector picks a structure for a player, or null if there is none
+     * @return players no structure was found for
+     */
+    List<Player> start(List<Player> recipients, Function<Player, StructureData> selector) {
+        Set<Long> used = new HashSet<>();
+        List<Player> unmatched = new ArrayList<>();
+        for (Player player : recipients) {
+            StructureData structure = null;
+            for (int attempt = 0; attempt < PICK_ATTEMPTS; attempt++) {
+                StructureData candidate = selector.apply(player);
+                if (candidate == null) {
+                    break;
+                }
+                structure = candidate;
+                if (used.add(((long) candidate.x() << 32) ^ (candidate.z() & 0xffffffffL))) {
+                    break;
+                }
+                if (attempt == PICK_ATTEMPTS - 1) {
+                    repeated++;
+                }
+            }
+            if (structure == null) {
+                unmatched.add(player);
+            } else {
+                waiting.add(new Job(player, structure));
+            }
+        }
+
+        total = waiting.size();
+        if (total > 0) {
+            sender.sendMessage("§7Preparing " + total + " explorer maps...");
+            task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+        }
+        return unmatched;
+    }
+
+    private void submit(Job job) {
+        inFlight++;
+        ExplorerMapCreator.prepareMap(job.structure(), scale, TerrainExecutor.Priority.HIGH)
+                .whenComplete((map, error) -> finished.add(new Result(job, map, error)));
+    }
+
+    private void tick() {
+        // Handle finished jobs first so their slots can be refilled this tick
+        int handed = 0;
+        Result result;
+        while (handed < perTick && (result = finished.poll()) != null) {
+            inFlight--;
+            Throwable error = result.error() instanceof CompletionException ? result.error().getCause() : result.error();
+            if (error instanceof RejectedExecutionException) {
+                waiting.addFirst(result.job());
+                continue;
+            }
+            Player player = result.job().player();
+            if (error != null || !player.isOnline()) {
+                failed++;
+                continue;
+            }
+            ExplorerMapCreator.PreparedMap map = result.map();
+            // Counted once the main-thread queue has handed it out, the player may leave before
+            ExplorerMapCreator.giveMap(player, map, delivered -> {
+                if (delivered) {
+                    given++;
+                    FindStructureCommand.sendReceivedMessages(player, map.structure(), scale);
+                } else {
+                    failed++;
+                }
+            });
+            handed++;
+        }
+
+        while (inFlight < maxInFlight && !waiting.isEmpty()) {
+            submit(waiting.poll());
+        }
+
+        if (given + failed == total) {
+            task.cancel();
+            long elapsed = System.currentTimeMillis() - startTime;
+            String summary = "Gave " + given + "/" + total + " explorer maps in "
+                    + String.format(Locale.ROOT, "%.1f", elapsed / 1000.0) + "s"
+                    + (failed > 0 ? ", " + failed + " failed" : "")
+                    + (repeated > 0 ? ", " + repeated + " share a structure" : "");
+            sender.sendMessage("§a" + summary);
+            DebugLogger.info("Batch distribution: " + summary);
+        }
+    }
+}
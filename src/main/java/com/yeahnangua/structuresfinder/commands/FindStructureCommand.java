@@ -5,6 +5,9 @@ import com.yeahnangua.structuresfinder.cache.CachedMapData;
 import com.yeahnangua.structuresfinder.data.StructureData;
 import com.yeahnangua.structuresfinder.data.StructureDataLoader;
 import com.yeahnangua.structuresfinder.map.ExplorerMapCreator;
+import com.yeahnangua.structuresfinder.metrics.Histogram;
+import com.yeahnangua.structuresfinder.metrics.Metrics;
+import com.yeahnangua.structuresfinder.util.DebugLogger;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
@@ -14,17 +17,27 @@ import org.bukkit.entity.Player;
 import org.bukkit.map.MapView;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Command handler for /findstructure command.
- * Usage: /findstructure <world> <player> [type] [scale] [--notclear]
+ * Usage: /findstructure <world> <player|@a|p1,p2> [type] [scale] [--notclear] [--near] [--radius <r>] [--min-radius <r>]
  * Scale: 0=closest, 1=close, 2=normal, 3=far, 4=farthest
  * --notclear: Only select structures that haven't been cleared
+ * --near: Select one of the structures nearest to the player
+ * --radius / --min-radius: Only select structures within this distance range of the player
+ * Also: /findstructure stats - shows latency percentiles, cache and queue metrics
  */
 public class FindStructureCommand implements CommandExecutor, TabCompleter {
 
+    private static final Histogram commandTimer = Metrics.timer("structuresfinder_command_seconds",
+            "Main-thread time spent handling /findstructure.");
+
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         // Check permission
@@ -33,37 +46,73 @@ public class FindStructureCommand implements CommandExecutor, TabCompleter {
             return true;
         }
 
+        if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+            if (!sender.hasPermission("structuresfinder.stats")) {
+                sender.sendMessage("§cYou don't have permission to view statistics!");
+                return true;
+            }
+            sendStats(sender);
+            return true;
+        }
+
+        long start = System.nanoTime();
+        try {
+            return findStructure(sender, args);
+        } finally {
+            commandTimer.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean findStructure(CommandSender sender, String[] args) {
+
         // Check arguments - need at least world and player
         if (args.length < 2) {
-            sender.sendMessage("§cUsage: /findstructure <world> <player> [type] [scale] [--notclear]");
+            sender.sendMessage("§cUsage: /findstructure <world> <player|@a|p1,p2> [type] [scale] [--notclear] [--near] [--radius <r>] [--min-radius <r>]");
             sender.sendMessage("§7Scale: 0=closest, 1=close, 2=normal, 3=far, 4=farthest");
             sender.sendMessage("§7--notclear: Only select structures that haven't been cleared");
+            sender.sendMessage("§7--near: Select one of the structures nearest to the player");
+            sender.sendMessage("§7--radius/--min-radius: Only select structures within this distance of the player");
+            sender.sendMessage("§7/findstructure stats: Show latency and cache statistics");
             sender.sendMessage("§7Available worlds: §f" + String.join(", ", StructureDataLoader.getAvailableWorlds()));
             return true;
         }
 
-        // Check for --notclear flag anywhere in args
+        // Check for flags anywhere in args
         boolean notCleared = false;
+        boolean near = false;
+        Integer maxRadius = null;
+        int minRadius = 0;
         List<String> filteredArgs = new ArrayList<>();
-        for (String arg : args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
             if (arg.equalsIgnoreCase("--notclear") || arg.equalsIgnoreCase("-nc")) {
                 notCleared = true;
+            } else if (arg.equalsIgnoreCase("--near")) {
+                near = true;
+            } else if (arg.equalsIgnoreCase("--radius") || arg.equalsIgnoreCase("--min-radius")) {
+                Integer value = i + 1 < args.length ? parseRadius(args[++i]) : null;
+                if (value == null) {
+                    sender.sendMessage("§c" + arg + " needs a non-negative block distance");
+                    return true;
+                }
+                if (arg.equalsIgnoreCase("--radius")) {
+                    maxRadius = value;
+                } else {
+                    minRadius = value;
+                }
             } else {
                 filteredArgs.add(arg);
             }
         }
         args = filteredArgs.toArray(new String[0]);
+        if (args.length < 2) {
+            sender.sendMessage("§cUsage: /findstructure <world> <player|@a|p1,p2> [type] [scale] [--notclear] [--near] [--radius <r>] [--min-radius <r>]");
+            return true;
+        }
 
         String worldName = args[0];
         String playerName = args[1];
 
-        // Get target player
-        Player targetPlayer = Bukkit.getPlayer(playerName);
-        if (targetPlayer == null) {
-            sender.sendMessage("§cPlayer not found: " + playerName);
-            return true;
-        }
-
         // Parse structure type (3rd argument, if not a number)
         String structureType = args.length > 2 && !args[2].matches("\\d") ? args[2].toUpperCase() : null;
 
@@ -92,45 +141,100 @@ public class FindStructureCommand implements CommandExecutor, TabCompleter {
             return true;
         }
 
+        StructuresFinder plugin = StructuresFinder.getInstance();
+
+        // Several recipients: @a or a comma-separated list
+        if (playerName.equals("@a") || playerName.contains(",")) {
+            List<Player> recipients = parseRecipients(sender, playerName);
+            if (recipients.isEmpty()) {
+                sender.sendMessage("§cNo matching players online");
+                return true;
+            }
+            boolean byLocation = near || maxRadius != null || minRadius > 0;
+            boolean nearest = near;
+            boolean onlyNotCleared = notCleared;
+            int innerRadius = minRadius;
+            int outerRadius = maxRadius != null ? maxRadius : Integer.MAX_VALUE;
+            List<Player> unmatched = new BatchDistribution(plugin, sender, scale).start(recipients, player -> {
+                if (byLocation) {
+                    return player.getWorld().getName().equals(worldName)
+                            ? selectNearPlayer(player, worldName, structureType, nearest, innerRadius, outerRadius, onlyNotCleared)
+                            : null;
+                }
+                return structureType != null
+                        ? StructureDataLoader.getRandomStructureByType(worldName, structureType, onlyNotCleared)
+                        : StructureDataLoader.getRandomStructure(worldName, onlyNotCleared);
+            });
+            if (!unmatched.isEmpty()) {
+                sender.sendMessage("§cNo structure found for: " + String.join(", ", unmatched.stream().map(Player::getName).toList()));
+            }
+            return true;
+        }
+
+        // Get target player
+        Player targetPlayer = Bukkit.getPlayer(playerName);
+        if (targetPlayer == null) {
+            sender.sendMessage("§cPlayer not found: " + playerName);
+            return true;
+        }
+
         // Get random structure
         StructureData structure;
-        StructuresFinder plugin = StructuresFinder.getInstance();
 
-        plugin.getLogger().info("[命令] /findstructure 执行: 世界=" + worldName + ", 玩家=" + targetPlayer.getName() + ", 类型=" + structureType + ", 缩放=" + scale);
+        // Location-based selection - cached maps point anywhere, so always generate
+        if (near || maxRadius != null || minRadius > 0) {
+            if (!targetPlayer.getWorld().getName().equals(worldName)) {
+                sender.sendMessage("§c" + targetPlayer.getName() + " is not in world: " + worldName);
+                return true;
+            }
+            structure = selectNearPlayer(targetPlayer, worldName, structureType, near, minRadius,
+                    maxRadius != null ? maxRadius : Integer.MAX_VALUE, notCleared);
+            if (structure == null) {
+                String filterMsg = notCleared ? " (not cleared)" : "";
+                String typeMsg = structureType != null ? " of type '" + structureType + "'" : "";
+                sender.sendMessage("§cNo structures" + typeMsg + filterMsg + " found in range in world: " + worldName);
+                return true;
+            }
+
+            if (ExplorerMapCreator.createAndGiveMap(targetPlayer, structure, scale)) {
+                sendSuccessMessages(sender, targetPlayer, structure, scale);
+            } else {
+                sender.sendMessage("§cFailed to create explorer map. Is the world loaded?");
+            }
+            return true;
+        }
+
+        MapView.Scale requestedScale = scale;
+        DebugLogger.debug(() -> "[命令] /findstructure 执行: 世界=" + worldName + ", 玩家=" + targetPlayer.getName() + ", 类型=" + structureType + ", 缩放=" + requestedScale);
 
         // Try to use cache
         CachedMapData cachedMap;
-        String cacheType;
 
         if (structureType != null) {
             // 指定了类型 - 获取指定类型的缓存
-            plugin.getLogger().info("[命令] 检查缓存: " + worldName + "_" + structureType);
-            cachedMap = plugin.getMapCache().get(worldName, structureType);
-            cacheType = structureType;
+            DebugLogger.debug(() -> "[命令] 检查缓存: " + worldName + "_" + structureType);
+            cachedMap = plugin.getMapCache().get(worldName, structureType, notCleared, scale);
         } else {
             // 未指定类型 - 随机选择一个已缓存的类型
-            plugin.getLogger().info("[命令] 未指定类型, 随机选择缓存...");
-            cachedMap = plugin.getMapCache().getRandomCached(worldName);
-            cacheType = cachedMap != null ? cachedMap.structure().structureType() : null;
+            DebugLogger.debug("[命令] 未指定类型, 随机选择缓存...");
+            cachedMap = plugin.getMapCache().getRandomCached(worldName, notCleared, scale);
         }
 
         if (cachedMap != null) {
             // Cache hit - give cached map immediately
-            plugin.getLogger().info("[命令] 缓存命中! 立即给予玩家地图...");
+            DebugLogger.debug("[命令] 缓存命中! 立即给予玩家地图...");
             ExplorerMapCreator.createAndGiveMapFromCache(targetPlayer, cachedMap);
 
             // Send messages
             structure = cachedMap.structure();
-            sendSuccessMessages(sender, targetPlayer, structure, MapView.Scale.FAR);
+            sendSuccessMessages(sender, targetPlayer, structure, cachedMap.scale());
 
-            // Regenerate cache in background for next player
-            plugin.getLogger().info("[命令] 触发后台重新生成...");
-            plugin.getMapCache().regenerateAsync(worldName, cacheType);
+            // The pool refills itself in the background once it runs low
             return true;
         }
 
         // Cache miss - fallback to original logic
-        plugin.getLogger().warning("[命令] 缓存未命中! 使用回退逻辑 (即时生成)...");
+        DebugLogger.debug("[命令] 缓存未命中! 使用回退逻辑 (即时生成)...");
 
         if (structureType != null) {
             structure = StructureDataLoader.getRandomStructureByType(worldName, structureType, notCleared);
@@ -162,18 +266,101 @@ public class FindStructureCommand implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    /**
+     * Shows latency percentiles, counters and gauges from the metrics registry.
+     */
+    private void sendStats(CommandSender sender) {
+        sender.sendMessage("§6=== StructuresFinder stats ===");
+        for (Metrics.HistogramView view : Metrics.histograms()) {
+            Histogram.Snapshot snapshot = view.snapshot();
+            if (snapshot.count() == 0) {
+                continue;
+            }
+            boolean timer = view.unit() == Metrics.Unit.NANOSECONDS;
+            sender.sendMessage("§e" + displayName(view.name(), view.labels()) + " §7n=" + snapshot.count()
+                    + " p50=" + formatValue(snapshot.p50(), timer) + " p95=" + formatValue(snapshot.p95(), timer)
+                    + " p99=" + formatValue(snapshot.p99(), timer) + " max=" + formatValue(snapshot.max(), timer));
+        }
+
+        // Cache hit rate over all pools
+        long hits = 0;
+        long requests = 0;
+        for (Metrics.CounterView view : Metrics.counters()) {
+            if (view.name().equals("structuresfinder_cache_requests_total")) {
+                requests += view.value();
+                if (view.labels().contains("result=\"hit\"")) {
+                    hits += view.value();
+                }
+            } else {
+                sender.sendMessage("§e" + displayName(view.name(), view.labels()) + " §7" + view.value());
+            }
+        }
+        if (requests > 0) {
+            sender.sendMessage(String.format(Locale.ROOT, "§eCache hit rate §7%.1f%% (%d/%d)", hits * 100.0 / requests, hits, requests));
+        }
+
+        for (Metrics.GaugeView view : Metrics.gauges()) {
+            sender.sendMessage("§e" + displayName(view.name(), view.labels()) + " §7" + formatGauge(view.value()));
+        }
+    }
+
+    private static String displayName(String name, String labels) {
+        String shortName = name.startsWith("structuresfinder_") ? name.substring("structuresfinder_".length()) : name;
+        return labels.isEmpty() ? shortName : shortName + "{" + labels.replace("\"", "") + "}";
+    }
+
+    private static String formatValue(long value, boolean nanos) {
+        return nanos ? String.format(Locale.ROOT, "%.2fms", value / 1_000_000.0) : String.valueOf(value);
+    }
+
+    private static String formatGauge(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    /**
+     * Resolves @a or a comma-separated list of names, reporting names that are not online.
+     */
+    private List<Player> parseRecipients(CommandSender sender, String input) {
+        if (input.equals("@a")) {
+            return new ArrayList<>(Bukkit.getOnlinePlayers());
+        }
+        Map<String, Player> recipients = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String name : input.split(",")) {
+            if (name.isBlank()) {
+                continue;
+            }
+            Player player = Bukkit.getPlayer(name.trim());
+            if (player == null) {
+                missing.add(name.trim());
+            } else {
+                recipients.put(player.getName(), player);
+            }
+        }
+        if (!missing.isEmpty()) {
+            sender.sendMessage("§cPlayer not found: " + String.join(", ", missing));
+        }
+        return new ArrayList<>(recipients.values());
+    }
+
+    /**
+     * Tells a player which map they received.
+     */
+    static void sendReceivedMessages(Player targetPlayer, StructureData structure, MapView.Scale scale) {
+        StructuresFinder plugin = StructuresFinder.getInstance();
+        targetPlayer.sendMessage(ExplorerMapCreator.replacePlaceholders(plugin.getConfigString("messages.received"), structure, scale));
+        targetPlayer.sendMessage(ExplorerMapCreator.replacePlaceholders(plugin.getConfigString("messages.pointing-to"), structure, scale));
+        targetPlayer.sendMessage(ExplorerMapCreator.replacePlaceholders(plugin.getConfigString("messages.type"), structure, scale));
+        targetPlayer.sendMessage(ExplorerMapCreator.replacePlaceholders(plugin.getConfigString("messages.scale"), structure, scale));
+    }
+
     private void sendSuccessMessages(CommandSender sender, Player targetPlayer, StructureData structure, MapView.Scale scale) {
         StructuresFinder plugin = StructuresFinder.getInstance();
 
-        String receivedMsg = plugin.getConfigString("messages.received");
         String pointingMsg = plugin.getConfigString("messages.pointing-to");
         String typeMsg = plugin.getConfigString("messages.type");
-        String scaleMsg = plugin.getConfigString("messages.scale");
 
-        targetPlayer.sendMessage(ExplorerMapCreator.replacePlaceholders(receivedMsg, structure, scale));
-        targetPlayer.sendMessage(ExplorerMapCreator.replacePlaceholders(pointingMsg, structure, scale));
-        targetPlayer.sendMessage(ExplorerMapCreator.replacePlaceholders(typeMsg, structure, scale));
-        targetPlayer.sendMessage(ExplorerMapCreator.replacePlaceholders(scaleMsg, structure, scale));
+        sendReceivedMessages(targetPlayer, structure, scale);
 
         if (sender != targetPlayer) {
             String sentMsg = plugin.getConfigString("messages.sent-to");
@@ -184,6 +371,48 @@ public class FindStructureCommand implements CommandExecutor, TabCompleter {
         }
     }
 
+    /**
+     * Selects a structure relative to the player's position using the spatial index.
+     * With near, picks among the closest few structures; otherwise picks randomly within the distance range.
+     */
+    private StructureData selectNearPlayer(Player player, String worldName, String structureType, boolean near,
+                                           int minRadius, int maxRadius, boolean notCleared) {
+        int x = player.getLocation().getBlockX();
+        int z = player.getLocation().getBlockZ();
+
+        if (!near) {
+            return StructureDataLoader.getRandomStructureInRing(worldName, structureType, x, z, minRadius, maxRadius, notCleared);
+        }
+
+        int candidates = StructuresFinder.getInstance().getNearCandidates();
+        List<StructureData> nearest = new ArrayList<>();
+        for (StructureData data : StructureDataLoader.getNearestStructures(worldName, structureType, x, z, candidates, minRadius, notCleared)) {
+            if (inRange(data, x, z, minRadius, maxRadius)) {
+                nearest.add(data);
+            }
+        }
+        if (nearest.isEmpty()) {
+            return null;
+        }
+        return nearest.get(ThreadLocalRandom.current().nextInt(nearest.size()));
+    }
+
+    private static boolean inRange(StructureData data, int x, int z, int minRadius, int maxRadius) {
+        long dx = data.x() - (long) x;
+        long dz = data.z() - (long) z;
+        long distance = dx * dx + dz * dz;
+        return distance >= (long) minRadius * minRadius && distance <= (long) maxRadius * maxRadius;
+    }
+
+    private Integer parseRadius(String input) {
+        try {
+            int radius = Integer.parseInt(input);
+            return radius >= 0 ? radius : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private MapView.Scale parseScale(String input) {
         try {
             int level = Integer.parseInt(input);
@@ -200,16 +429,17 @@ public class FindStructureCommand implements CommandExecutor, TabCompleter {
         }
     }
 
+    private static final String[] FLAGS = {"--notclear", "--near", "--radius", "--min-radius"};
+
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
         List<String> completions = new ArrayList<>();
 
-        // Check if --notclear is already used
-        boolean hasNotClear = false;
-        for (String arg : args) {
-            if (arg.equalsIgnoreCase("--notclear") || arg.equalsIgnoreCase("-nc")) {
-                hasNotClear = true;
-                break;
+        // A radius flag expects a distance next
+        if (args.length >= 2) {
+            String previous = args[args.length - 2];
+            if (previous.equalsIgnoreCase("--radius") || previous.equalsIgnoreCase("--min-radius")) {
+                return completions;
             }
         }
 
@@ -221,14 +451,22 @@ public class FindStructureCommand implements CommandExecutor, TabCompleter {
                     completions.add(world);
                 }
             }
+            if ("stats".startsWith(partial) && sender.hasPermission("structuresfinder.stats")) {
+                completions.add("stats");
+            }
         } else if (args.length == 2) {
-            // Complete player names
-            String partial = args[1].toLowerCase();
+            // Complete player names, continuing after the last comma of a list
+            int comma = args[1].lastIndexOf(',');
+            String prefix = args[1].substring(0, comma + 1);
+            String partial = args[1].substring(comma + 1).toLowerCase();
             for (Player player : Bukkit.getOnlinePlayers()) {
                 if (player.getName().toLowerCase().startsWith(partial)) {
-                    completions.add(player.getName());
+                    completions.add(prefix + player.getName());
                 }
             }
+            if (prefix.isEmpty() && "@a".startsWith(partial)) {
+                completions.add("@a");
+            }
         } else if (args.length == 3) {
             // Complete structure types or scale
             String worldName = args[0];
@@ -245,10 +483,7 @@ public class FindStructureCommand implements CommandExecutor, TabCompleter {
                     completions.add(String.valueOf(i));
                 }
             }
-            // Suggest --notclear
-            if (!hasNotClear && "--notclear".startsWith(partial)) {
-                completions.add("--notclear");
-            }
+            suggestFlags(args, partial, completions);
         } else if (args.length == 4) {
             // Complete scale
             String partial = args[3].toLowerCase();
@@ -257,18 +492,29 @@ public class FindStructureCommand implements CommandExecutor, TabCompleter {
                     completions.add(String.valueOf(i));
                 }
             }
-            // Suggest --notclear
-            if (!hasNotClear && "--notclear".startsWith(partial)) {
-                completions.add("--notclear");
-            }
+            suggestFlags(args, partial, completions);
         } else if (args.length >= 5) {
-            // Suggest --notclear if not already used
-            String partial = args[args.length - 1].toLowerCase();
-            if (!hasNotClear && "--notclear".startsWith(partial)) {
-                completions.add("--notclear");
-            }
+            suggestFlags(args, args[args.length - 1].toLowerCase(), completions);
         }
 
         return completions;
     }
+
+    /**
+     * Suggests flags that are not already used.
+     */
+    private void suggestFlags(String[] args, String partial, List<String> completions) {
+        for (String flag : FLAGS) {
+            boolean used = false;
+            for (int i = 0; i < args.length - 1; i++) {
+                if (args[i].equalsIgnoreCase(flag) || (flag.equals("--notclear") && args[i].equalsIgnoreCase("-nc"))) {
+                    used = true;
+                    break;
+                }
+            }
+            if (!used && flag.startsWith(partial)) {
+                completions.add(flag);
+            }
+        }
+    }
 }
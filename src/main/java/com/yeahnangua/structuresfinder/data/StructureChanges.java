@@ -0,0 +1,62 @@
+package com.yeahnangua.structuresfinder.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Differences between two snapshots of a world's structure locations, matched by x/z.
+ * A structure whose schematic or type changed counts as removed and added.
+ *
+ * @param cleared  structures that were uncleared before and are cleared now
+ * @param restored structures that were cleared before and are uncleared now
+ */
+public record StructureChanges(String worldName, List<StructureData> added, List<StructureData> removed,
+                               List<StructureData> cleared, List<StructureData> restored) {
+
+    /**
+     * Compares the given structures of two snapshots.
+     *
+     * @param nextCandidates     structures of next that may be new or changed
+     * @param previousCandidates structures of previous that may be gone
+     */
+    static StructureChanges diff(StructureIndex previous, StructureIndex next,
+                                 Iterable<StructureData> nextCandidates, Iterable<StructureData> previousCandidates) {
+        List<StructureData> added = new ArrayList<>();
+        List<StructureData> removed = new ArrayList<>();
+        List<StructureData> cleared = new ArrayList<>();
+        List<StructureData> restored = new ArrayList<>();
+
+        for (StructureData structure : nextCandidates) {
+            StructureData old = previous.find(structure.x(), structure.z());
+            if (old == null) {
+                added.add(structure);
+            } else if (!sameStructure(old, structure)) {
+                removed.add(old);
+                added.add(structure);
+            } else if (structure.cleared() && !old.cleared()) {
+                cleared.add(structure);
+            } else if (!structure.cleared() && old.cleared()) {
+                restored.add(structure);
+            }
+        }
+        for (StructureData structure : previousCandidates) {
+            if (next.find(structure.x(), structure.z()) == null) {
+                removed.add(structure);
+            }
+        }
+        return new StructureChanges(next.getWorldName(), added, removed, cleared, restored);
+    }
+
+    private static boolean sameStructure(StructureData a, StructureData b) {
+        return a.y() == b.y() && a.schematicName().equals(b.schematicName()) && a.structureType().equals(b.structureType());
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && cleared.isEmpty() && restored.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "+" + added.size() + " -" + removed.size() + ", " + cleared.size() + " cleared, " + restored.size() + " restored";
+    }
+}
@@ -1,89 +1,195 @@
 package com.yeahnangua.structuresfinder.data;
 
 import com.yeahnangua.structuresfinder.StructuresFinder;
-import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.YamlConfiguration;
+import com.yeahnangua.structuresfinder.util.DebugLogger;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 /**
  * Loads structure data from BetterStructures plugin files.
+ * Parsed data is kept in a resident per-world {@link StructureIndex}; lookups never touch the disk.
+ * Call {@link #refresh()} off the main thread to pick up changed files.
+ *
+ * <p>A file that only grew since the last parse is read from its last entry on and merged into
+ * the existing structures; any other change re-parses the whole file. Each rebuilt index is
+ * compared with the one it replaces and the differences go to the change listener.
  */
 public class StructureDataLoader {
 
     private static final String BS_DATA_PATH = "plugins/BetterStructures/structure_locations";
 
+    private static final ConcurrentHashMap<String, StructureIndex> indexes = new ConcurrentHashMap<>();
+    // Where to continue parsing each world's file if it is appended to; only used under the refresh lock
+    private static final Map<String, StructureLocationsParser.Resume> resumes = new HashMap<>();
+    private static volatile List<String> worlds = Collections.emptyList();
+    private static volatile Consumer<StructureChanges> changeListener;
+
     /**
-     * Gets all available worlds that have structure data.
+     * Gets the BetterStructures structure_locations folder.
      */
-    public static List<String> getAvailableWorlds() {
-        File dataFolder = new File(BS_DATA_PATH);
-        if (!dataFolder.exists() || !dataFolder.isDirectory()) {
-            return Collections.emptyList();
-        }
+    static File getDataFolder() {
+        return new File(BS_DATA_PATH);
+    }
 
-        File[] files = dataFolder.listFiles((dir, name) -> name.endsWith(".yml"));
+    /**
+     * Sets the listener told about changes to a world's structures after its index was
+     * rebuilt. Called on the refreshing thread, not on the main thread.
+     */
+    public static void setChangeListener(Consumer<StructureChanges> listener) {
+        changeListener = listener;
+    }
+
+    /**
+     * Rescans the data folder and rebuilds the index of every world file whose
+     * mtime or size changed. Blocking; must not be called from the main thread.
+     */
+    public static void refresh() {
+        refresh(getDataFolder(), StructuresFinder.getInstance().getLogger());
+    }
+
+    /**
+     * Rescans a data folder, logging to the given logger.
+     */
+    static synchronized void refresh(File dataFolder, Logger logger) {
+        File[] files = dataFolder.isDirectory() ? dataFolder.listFiles((dir, name) -> name.endsWith(".yml")) : null;
         if (files == null) {
-            return Collections.emptyList();
+            indexes.clear();
+            resumes.clear();
+            worlds = Collections.emptyList();
+            return;
         }
 
-        List<String> worlds = new ArrayList<>();
+        Set<String> found = new HashSet<>();
         for (File file : files) {
-            worlds.add(file.getName().replace(".yml", ""));
+            String worldName = file.getName().replace(".yml", "");
+            found.add(worldName);
+
+            long lastModified = file.lastModified();
+            long size = file.length();
+            StructureIndex current = indexes.get(worldName);
+            if (current != null && current.matches(lastModified, size)) {
+                continue;
+            }
+
+            long startTime = System.currentTimeMillis();
+            if (current != null && refreshAppended(worldName, file, current, lastModified, size, logger)) {
+                logger.info("[索引] 已追加世界 '" + worldName + "': "
+                        + indexes.get(worldName).size() + " 个结构, 耗时 " + (System.currentTimeMillis() - startTime) + "ms");
+                continue;
+            }
+
+            StructureLocationsParser.ParseResult parsed = StructureLocationsParser.parseResumable(worldName, file, logger);
+            StructureIndex index = StructureIndex.build(worldName, lastModified, size, parsed.structures());
+            indexes.put(worldName, index);
+            setResume(worldName, parsed.resume());
+            logger.info("[索引] 已载入世界 '" + worldName + "': "
+                    + parsed.structures().size() + " 个结构, 耗时 " + (System.currentTimeMillis() - startTime) + "ms");
+            if (current != null) {
+                publish(StructureChanges.diff(current, index, index.getAll(), current.getAll()), logger);
+            }
         }
-        return worlds;
+
+        indexes.keySet().retainAll(found);
+        resumes.keySet().retainAll(found);
+        List<String> sorted = new ArrayList<>(indexes.keySet());
+        Collections.sort(sorted);
+        worlds = Collections.unmodifiableList(sorted);
     }
 
     /**
-     * Loads all structures from a specific world.
+     * Merges the entries appended to a file since its last parse into the current index.
+     *
+     * @return false if the file changed in place and has to be parsed again in full
      */
-    public static List<StructureData> loadStructures(String worldName) {
-        File worldFile = new File(BS_DATA_PATH, worldName + ".yml");
-        if (!worldFile.exists()) {
-            return Collections.emptyList();
+    private static boolean refreshAppended(String worldName, File file, StructureIndex current,
+                                           long lastModified, long size, Logger logger) {
+        StructureLocationsParser.Resume resume = resumes.get(worldName);
+        if (resume == null || size <= resume.parsedSize()) {
+            return false;
         }
-
-        YamlConfiguration config = YamlConfiguration.loadConfiguration(worldFile);
-        ConfigurationSection structuresSection = config.getConfigurationSection("structures");
-
-        if (structuresSection == null) {
-            return Collections.emptyList();
+        StructureLocationsParser.ParseResult parsed;
+        try {
+            parsed = StructureLocationsParser.parseAppended(worldName, file, resume);
+        } catch (StructureLocationsParser.UnexpectedFormatException | IOException e) {
+            logger.warning("[索引] 无法增量解析 " + file.getName() + " (" + e.getMessage() + "), 重新完整解析");
+            return false;
+        }
+        if (parsed == null) {
+            return false;
         }
 
-        List<StructureData> structures = new ArrayList<>();
+        // The last entry read before is read again in full, so it is replaced rather than kept
+        List<StructureData> previous = current.getAll();
+        List<StructureData> replaced = resume.hasEntry() && !previous.isEmpty()
+                ? previous.subList(previous.size() - 1, previous.size())
+                : Collections.emptyList();
 
-        for (String key : structuresSection.getKeys(false)) {
-            ConfigurationSection locationSection = structuresSection.getConfigurationSection(key);
-            if (locationSection == null) continue;
+        StructureIndex index = current.withAppended(lastModified, size, parsed.structures(),
+                replaced.isEmpty() ? null : replaced.get(0));
+        indexes.put(worldName, index);
+        setResume(worldName, parsed.resume());
+        publish(StructureChanges.diff(current, index, parsed.structures(), replaced), logger);
+        return true;
+    }
 
-            int x = locationSection.getInt("x");
-            int y = locationSection.getInt("y");
-            int z = locationSection.getInt("z");
-            String schematic = locationSection.getString("schematic", "unknown");
-            String type = locationSection.getString("type", "UNDEFINED");
-            boolean cleared = locationSection.getBoolean("cleared", false);
+    private static void setResume(String worldName, StructureLocationsParser.Resume resume) {
+        if (resume != null) {
+            resumes.put(worldName, resume);
+        } else {
+            resumes.remove(worldName);
+        }
+    }
 
-            structures.add(new StructureData(worldName, x, y, z, schematic, type, cleared));
+    private static void publish(StructureChanges changes, Logger logger) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        DebugLogger.debug(() -> "[索引] 世界 '" + changes.worldName() + "' 变更: " + changes);
+        Consumer<StructureChanges> listener = changeListener;
+        if (listener == null) {
+            return;
         }
+        try {
+            listener.accept(changes);
+        } catch (RuntimeException e) {
+            logger.warning("[索引] 处理结构变更失败: " + e);
+        }
+    }
 
-        return structures;
+    /**
+     * Gets the resident index of a world, or null if the world has no structure data.
+     */
+    public static StructureIndex getIndex(String worldName) {
+        return indexes.get(worldName);
     }
 
     /**
-     * Loads structures of a specific type from a world.
+     * Gets all available worlds that have structure data.
      */
-    public static List<StructureData> loadStructuresByType(String worldName, String structureType) {
-        List<StructureData> all = loadStructures(worldName);
-        List<StructureData> filtered = new ArrayList<>();
+    public static List<String> getAvailableWorlds() {
+        return worlds;
+    }
 
-        for (StructureData data : all) {
-            if (data.structureType().equalsIgnoreCase(structureType)) {
-                filtered.add(data);
-            }
-        }
+    /**
+     * Loads all structures from a specific world.
+     */
+    public static List<StructureData> loadStructures(String worldName) {
+        StructureIndex index = indexes.get(worldName);
+        return index == null ? Collections.emptyList() : index.getAll();
+    }
 
-        return filtered;
+    /**
+     * Loads structures of a specific type from a world.
+     */
+    public static List<StructureData> loadStructuresByType(String worldName, String structureType) {
+        StructureIndex index = indexes.get(worldName);
+        return index == null ? Collections.emptyList() : index.getByType(structureType);
     }
 
     /**
@@ -97,14 +203,8 @@ public class StructureDataLoader {
      * Gets a random structure from a world, optionally filtering out cleared structures.
      */
     public static StructureData getRandomStructure(String worldName, boolean notCleared) {
-        List<StructureData> structures = loadStructures(worldName);
-        if (notCleared) {
-            structures = structures.stream().filter(s -> !s.cleared()).toList();
-        }
-        if (structures.isEmpty()) {
-            return null;
-        }
-        return structures.get(new Random().nextInt(structures.size()));
+        StructureIndex index = indexes.get(worldName);
+        return index == null ? null : index.random(null, notCleared);
     }
 
     /**
@@ -118,25 +218,67 @@ public class StructureDataLoader {
      * Gets a random structure of a specific type from a world, optionally filtering out cleared structures.
      */
     public static StructureData getRandomStructureByType(String worldName, String structureType, boolean notCleared) {
-        List<StructureData> structures = loadStructuresByType(worldName, structureType);
-        if (notCleared) {
-            structures = structures.stream().filter(s -> !s.cleared()).toList();
+        StructureIndex index = indexes.get(worldName);
+        return index == null ? null : index.random(structureType, notCleared);
+    }
+
+    /**
+     * Finds the structure at the given x/z in a world's current index, or null if there is none.
+     */
+    public static StructureData findStructure(String worldName, int x, int z) {
+        StructureIndex index = indexes.get(worldName);
+        return index == null ? null : index.find(x, z);
+    }
+
+    /**
+     * Gets the structures nearest to (x, z) that are at least minRadius blocks away, nearest first.
+     *
+     * @param structureType type to search, or null for all types
+     */
+    public static List<StructureData> getNearestStructures(String worldName, String structureType,
+                                                           int x, int z, int count, int minRadius, boolean notCleared) {
+        StructureSpatialIndex spatial = getSpatialIndex(worldName, structureType);
+        if (spatial == null) {
+            return Collections.emptyList();
+        }
+        long minSquared = (long) minRadius * minRadius;
+        return spatial.nearest(x, z, count, s -> (!notCleared || !s.cleared()) && distanceSquared(s, x, z) >= minSquared);
+    }
+
+    /**
+     * Gets a random structure whose distance from (x, z) lies in [minRadius, maxRadius].
+     *
+     * @param structureType type to search, or null for all types
+     */
+    public static StructureData getRandomStructureInRing(String worldName, String structureType,
+                                                         int x, int z, int minRadius, int maxRadius, boolean notCleared) {
+        StructureSpatialIndex spatial = getSpatialIndex(worldName, structureType);
+        if (spatial == null) {
+            return null;
         }
+        List<StructureData> structures = spatial.withinRing(x, z, minRadius, maxRadius, notCleared ? s -> !s.cleared() : null);
         if (structures.isEmpty()) {
             return null;
         }
-        return structures.get(new Random().nextInt(structures.size()));
+        return structures.get(ThreadLocalRandom.current().nextInt(structures.size()));
+    }
+
+    private static long distanceSquared(StructureData data, int x, int z) {
+        long dx = data.x() - (long) x;
+        long dz = data.z() - (long) z;
+        return dx * dx + dz * dz;
+    }
+
+    private static StructureSpatialIndex getSpatialIndex(String worldName, String structureType) {
+        StructureIndex index = indexes.get(worldName);
+        return index == null ? null : index.getSpatialIndex(structureType);
     }
 
     /**
      * Gets all available structure types in a world.
      */
     public static Set<String> getAvailableTypes(String worldName) {
-        List<StructureData> structures = loadStructures(worldName);
-        Set<String> types = new HashSet<>();
-        for (StructureData data : structures) {
-            types.add(data.structureType());
-        }
-        return types;
+        StructureIndex index = indexes.get(worldName);
+        return index == null ? Collections.emptySet() : index.getTypes();
     }
 }
@@ -0,0 +1,122 @@
+package com.yeahnangua.structuresfinder.data;
+
+import com.yeahnangua.structuresfinder.StructuresFinder;
+import com.yeahnangua.structuresfinder.util.DebugLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the BetterStructures structure_locations folder and refreshes the index soon after
+ * a world file changes, instead of waiting for the next periodic refresh.
+ *
+ * <p>BetterStructures writes a file in several steps, so events are collected until the folder
+ * has been quiet for the debounce time (or for at most ten debounce periods) before refreshing.
+ * The periodic refresh keeps running as a fallback for file systems that do not report changes.
+ */
+public final class StructureDataWatcher {
+
+    private static final int MAX_DEBOUNCE_ROUNDS = 10;
+
+    private final StructuresFinder plugin;
+    private volatile WatchService watchService;
+    private Thread thread;
+
+    public StructureDataWatcher(StructuresFinder plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Starts watching if enabled in the config and the folder exists.
+     */
+    public synchronized void start() {
+        if (thread != null || !plugin.isIndexWatchEnabled()) {
+            return;
+        }
+        File folder = StructureDataLoader.getDataFolder();
+        if (!folder.isDirectory()) {
+            DebugLogger.info("Structure data folder not found, relying on periodic refresh: " + folder);
+            return;
+        }
+        try {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            folder.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchService = service;
+        } catch (IOException | UnsupportedOperationException e) {
+            DebugLogger.warn("Cannot watch " + folder + ", relying on periodic refresh: " + e);
+            return;
+        }
+        long debounceMillis = plugin.getIndexWatchDebounceMillis();
+        thread = new Thread(() -> run(debounceMillis), "StructuresFinder-DataWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching. A refresh already running is left to finish.
+     */
+    public synchronized void stop() {
+        WatchService service = watchService;
+        watchService = null;
+        thread = null;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ignored) {
+                // Closing only wakes the thread up
+            }
+        }
+    }
+
+    private void run(long debounceMillis) {
+        WatchService service = watchService;
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = drain(key);
+                for (int round = 0; round < MAX_DEBOUNCE_ROUNDS; round++) {
+                    key = service.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    changed |= drain(key);
+                }
+                if (changed) {
+                    StructureDataLoader.refresh();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignored) {
+            // Stopped
+        } catch (RuntimeException e) {
+            DebugLogger.error("Structure data watcher stopped, relying on periodic refresh", e);
+        }
+    }
+
+    /**
+     * Consumes a key's events and re-arms it.
+     *
+     * @return whether a world file may have changed
+     */
+    private static boolean drain(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || event.context() instanceof Path path && path.toString().endsWith(".yml")) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
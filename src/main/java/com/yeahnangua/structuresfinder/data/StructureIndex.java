@@ -0,0 +1,378 @@
+package com.yeahnangua.structuresfinder.data;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable in-memory snapshot of one world's structure locations.
+ * Built off the main thread and swapped in as a whole by {@link StructureDataLoader}.
+ *
+ * <p>Every structure array carries a bit set of cleared positions plus the positions of
+ * each subset, so a random cleared or uncleared structure is picked in O(1).
+ */
+public final class StructureIndex {
+
+    private static final StructureData[] EMPTY = new StructureData[0];
+
+    /**
+     * Cleared and uncleared positions in one structure array.
+     */
+    private record Clearance(StructureData[] structures, BitSet cleared, int[] unclearedPositions, int[] clearedPositions) {
+
+        static Clearance of(StructureData[] structures) {
+            BitSet cleared = new BitSet(structures.length);
+            for (int i = 0; i < structures.length; i++) {
+                if (structures[i].cleared()) {
+                    cleared.set(i);
+                }
+            }
+            int[] clearedPositions = cleared.stream().toArray();
+            int[] unclearedPositions = new int[structures.length - clearedPositions.length];
+            int next = 0;
+            for (int i = cleared.nextClearBit(0); i < structures.length; i = cleared.nextClearBit(i + 1)) {
+                unclearedPositions[next++] = i;
+            }
+            return new Clearance(structures, cleared, unclearedPositions, clearedPositions);
+        }
+
+        /**
+         * Carries this clearance over to an array that keeps the first {@code kept} structures
+         * of this one and appends new ones after them.
+         */
+        Clearance withAppended(StructureData[] next, int kept) {
+            BitSet nextCleared = (BitSet) cleared.clone();
+            nextCleared.clear(kept, structures.length);
+            int uncleared = unclearedPositions.length;
+            while (uncleared > 0 && unclearedPositions[uncleared - 1] >= kept) {
+                uncleared--;
+            }
+            int clearedCount = clearedPositions.length;
+            while (clearedCount > 0 && clearedPositions[clearedCount - 1] >= kept) {
+                clearedCount--;
+            }
+
+            int appendedCleared = 0;
+            for (int i = kept; i < next.length; i++) {
+                if (next[i].cleared()) {
+                    nextCleared.set(i);
+                    appendedCleared++;
+                }
+            }
+            int[] nextUncleared = Arrays.copyOf(unclearedPositions, uncleared + next.length - kept - appendedCleared);
+            int[] nextClearedPositions = Arrays.copyOf(clearedPositions, clearedCount + appendedCleared);
+            for (int i = kept; i < next.length; i++) {
+                if (nextCleared.get(i)) {
+                    nextClearedPositions[clearedCount++] = i;
+                } else {
+                    nextUncleared[uncleared++] = i;
+                }
+            }
+            return new Clearance(next, nextCleared, nextUncleared, nextClearedPositions);
+        }
+
+        StructureData random(boolean notCleared) {
+            if (notCleared) {
+                return pick(unclearedPositions);
+            }
+            return structures.length == 0 ? null : structures[ThreadLocalRandom.current().nextInt(structures.length)];
+        }
+
+        StructureData randomCleared() {
+            return pick(clearedPositions);
+        }
+
+        private StructureData pick(int[] positions) {
+            return positions.length == 0 ? null : structures[positions[ThreadLocalRandom.current().nextInt(positions.length)]];
+        }
+    }
+
+    private final String worldName;
+    private final long lastModified;
+    private final long fileSize;
+    private final StructureData[] all;
+    private final Map<String, StructureData[]> byType;
+    private final Set<String> types;
+    private final StructureSpatialIndex spatialAll;
+    private final Map<String, StructureSpatialIndex> spatialByType;
+    private final Clearance clearanceAll;
+    private final Map<String, Clearance> clearanceByType;
+    // Positions in all, sorted by packed x/z, for lookups by coordinates
+    private final long[] coordinateKeys;
+    private final int[] coordinatePositions;
+
+    private StructureIndex(String worldName, long lastModified, long fileSize,
+                           StructureData[] all, Map<String, StructureData[]> byType, Set<String> types) {
+        this.worldName = worldName;
+        this.lastModified = lastModified;
+        this.fileSize = fileSize;
+        this.all = all;
+        this.byType = byType;
+        this.types = types;
+        this.spatialAll = StructureSpatialIndex.build(all);
+
+        Map<String, StructureSpatialIndex> spatial = new HashMap<>();
+        for (Map.Entry<String, StructureData[]> entry : byType.entrySet()) {
+            spatial.put(entry.getKey(), StructureSpatialIndex.build(entry.getValue()));
+        }
+        this.spatialByType = Map.copyOf(spatial);
+
+        this.clearanceAll = Clearance.of(all);
+        Map<String, Clearance> clearance = new HashMap<>();
+        for (Map.Entry<String, StructureData[]> entry : byType.entrySet()) {
+            clearance.put(entry.getKey(), Clearance.of(entry.getValue()));
+        }
+        this.clearanceByType = Map.copyOf(clearance);
+
+        Integer[] order = new Integer[all.length];
+        for (int i = 0; i < all.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> coordinateKey(all[i].x(), all[i].z())));
+        this.coordinateKeys = new long[all.length];
+        this.coordinatePositions = new int[all.length];
+        for (int i = 0; i < all.length; i++) {
+            coordinatePositions[i] = order[i];
+            coordinateKeys[i] = coordinateKey(all[order[i]].x(), all[order[i]].z());
+        }
+    }
+
+    private StructureIndex(String worldName, long lastModified, long fileSize,
+                           StructureData[] all, Map<String, StructureData[]> byType, Set<String> types,
+                           StructureSpatialIndex spatialAll, Map<String, StructureSpatialIndex> spatialByType,
+                           Clearance clearanceAll, Map<String, Clearance> clearanceByType,
+                           long[] coordinateKeys, int[] coordinatePositions) {
+        this.worldName = worldName;
+        this.lastModified = lastModified;
+        this.fileSize = fileSize;
+        this.all = all;
+        this.byType = byType;
+        this.types = types;
+        this.spatialAll = spatialAll;
+        this.spatialByType = spatialByType;
+        this.clearanceAll = clearanceAll;
+        this.clearanceByType = clearanceByType;
+        this.coordinateKeys = coordinateKeys;
+        this.coordinatePositions = coordinatePositions;
+    }
+
+    private static long coordinateKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xffffffffL);
+    }
+
+    /**
+     * Builds a snapshot from parsed structures, grouping them by type.
+     */
+    public static StructureIndex build(String worldName, long lastModified, long fileSize, List<StructureData> structures) {
+        Map<String, List<StructureData>> grouped = new HashMap<>();
+        Set<String> types = new TreeSet<>();
+        for (StructureData data : structures) {
+            grouped.computeIfAbsent(typeKey(data.structureType()), k -> new ArrayList<>()).add(data);
+            types.add(data.structureType());
+        }
+
+        Map<String, StructureData[]> byType = new HashMap<>();
+        for (Map.Entry<String, List<StructureData>> entry : grouped.entrySet()) {
+            byType.put(entry.getKey(), entry.getValue().toArray(EMPTY));
+        }
+
+        return new StructureIndex(worldName, lastModified, fileSize, structures.toArray(EMPTY),
+                Map.copyOf(byType), Collections.unmodifiableSet(types));
+    }
+
+    /**
+     * Returns a snapshot of the same world with structures appended to the file since this one was built.
+     * Only the added structures are sorted; everything already indexed is copied over in order.
+     * Use {@link #build} when the file was parsed again in full.
+     *
+     * @param replaced the last structure of this snapshot if the append read it again, otherwise null
+     * @throws IllegalArgumentException if {@code replaced} is not the last structure of this snapshot
+     */
+    public StructureIndex withAppended(long lastModified, long fileSize, List<StructureData> added, StructureData replaced) {
+        int kept = all.length;
+        if (replaced != null) {
+            if (kept == 0 || all[kept - 1] != replaced) {
+                throw new IllegalArgumentException("Only the last structure can be replaced: " + replaced);
+            }
+            kept--;
+        }
+        StructureData[] addedArray = added.toArray(EMPTY);
+        StructureData[] nextAll = append(all, kept, addedArray);
+
+        Map<String, List<StructureData>> grouped = new HashMap<>();
+        for (StructureData data : addedArray) {
+            grouped.computeIfAbsent(typeKey(data.structureType()), k -> new ArrayList<>()).add(data);
+        }
+        String replacedType = replaced == null ? null : typeKey(replaced.structureType());
+        if (replacedType != null) {
+            grouped.computeIfAbsent(replacedType, k -> new ArrayList<>());
+        }
+
+        Map<String, StructureData[]> nextByType = new HashMap<>(byType);
+        Map<String, StructureSpatialIndex> nextSpatial = new HashMap<>(spatialByType);
+        Map<String, Clearance> nextClearance = new HashMap<>(clearanceByType);
+        for (Map.Entry<String, List<StructureData>> entry : grouped.entrySet()) {
+            String type = entry.getKey();
+            StructureData[] typeAdded = entry.getValue().toArray(EMPTY);
+            StructureData[] previous = byType.getOrDefault(type, EMPTY);
+            // The replaced structure is the last in the file, so it is also the last of its type
+            StructureData typeReplaced = type.equals(replacedType) ? replaced : null;
+            int typeKept = previous.length - (typeReplaced == null ? 0 : 1);
+            StructureData[] next = append(previous, typeKept, typeAdded);
+            if (next.length == 0) {
+                nextByType.remove(type);
+                nextSpatial.remove(type);
+                nextClearance.remove(type);
+            } else if (previous.length == 0) {
+                nextByType.put(type, next);
+                nextSpatial.put(type, StructureSpatialIndex.build(next));
+                nextClearance.put(type, Clearance.of(next));
+            } else {
+                nextByType.put(type, next);
+                nextSpatial.put(type, spatialByType.get(type).withAppended(typeAdded, typeReplaced));
+                nextClearance.put(type, clearanceByType.get(type).withAppended(next, typeKept));
+            }
+        }
+
+        Set<String> nextTypes = new TreeSet<>(types);
+        for (StructureData data : addedArray) {
+            nextTypes.add(data.structureType());
+        }
+        if (replaced != null && !containsType(nextAll, replaced.structureType())) {
+            nextTypes.remove(replaced.structureType());
+        }
+
+        // Merge the sorted keys of the added structures into the existing ones
+        Integer[] order = new Integer[addedArray.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = kept + i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> coordinateKey(nextAll[i].x(), nextAll[i].z())));
+        long[] nextKeys = new long[nextAll.length];
+        int[] nextPositions = new int[nextAll.length];
+        int out = 0, next = 0;
+        for (int slot = 0; slot <= coordinateKeys.length; slot++) {
+            while (next < order.length) {
+                long key = coordinateKey(nextAll[order[next]].x(), nextAll[order[next]].z());
+                if (slot < coordinateKeys.length && key >= coordinateKeys[slot]) {
+                    break;
+                }
+                nextKeys[out] = key;
+                nextPositions[out++] = order[next++];
+            }
+            // Skips the replaced structure, the only one at or past kept
+            if (slot < coordinateKeys.length && coordinatePositions[slot] < kept) {
+                nextKeys[out] = coordinateKeys[slot];
+                nextPositions[out++] = coordinatePositions[slot];
+            }
+        }
+
+        return new StructureIndex(worldName, lastModified, fileSize, nextAll, Map.copyOf(nextByType),
+                Collections.unmodifiableSet(nextTypes), spatialAll.withAppended(addedArray, replaced),
+                Map.copyOf(nextSpatial), clearanceAll.withAppended(nextAll, kept), Map.copyOf(nextClearance),
+                nextKeys, nextPositions);
+    }
+
+    /**
+     * Copies the first {@code kept} structures and appends the added ones after them.
+     */
+    private static StructureData[] append(StructureData[] structures, int kept, StructureData[] added) {
+        StructureData[] result = Arrays.copyOf(structures, kept + added.length);
+        System.arraycopy(added, 0, result, kept, added.length);
+        return result;
+    }
+
+    private static boolean containsType(StructureData[] structures, String structureType) {
+        for (StructureData data : structures) {
+            if (data.structureType().equals(structureType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String typeKey(String structureType) {
+        return structureType.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Checks whether this snapshot was built from a file with the given mtime and size.
+     */
+    public boolean matches(long lastModified, long fileSize) {
+        return this.lastModified == lastModified && this.fileSize == fileSize;
+    }
+
+    public String getWorldName() {
+        return worldName;
+    }
+
+    public int size() {
+        return all.length;
+    }
+
+    /**
+     * Gets all structures in the world. The returned list is read-only.
+     */
+    public List<StructureData> getAll() {
+        return Collections.unmodifiableList(Arrays.asList(all));
+    }
+
+    /**
+     * Gets all structures of a type (case-insensitive). The returned list is read-only.
+     */
+    public List<StructureData> getByType(String structureType) {
+        StructureData[] structures = byType.get(typeKey(structureType));
+        return structures == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(structures));
+    }
+
+    /**
+     * Gets the spatial index over all structures, or over one type (case-insensitive) if given.
+     * Returns null if the type does not exist in this world.
+     */
+    public StructureSpatialIndex getSpatialIndex(String structureType) {
+        return structureType == null ? spatialAll : spatialByType.get(typeKey(structureType));
+    }
+
+    /**
+     * Picks a random structure, of one type (case-insensitive) if given.
+     * Returns null if there is none, or none uncleared when notCleared is set.
+     */
+    public StructureData random(String structureType, boolean notCleared) {
+        Clearance clearance = clearance(structureType);
+        return clearance == null ? null : clearance.random(notCleared);
+    }
+
+    /**
+     * Picks a random cleared structure, of one type (case-insensitive) if given.
+     */
+    public StructureData randomCleared(String structureType) {
+        Clearance clearance = clearance(structureType);
+        return clearance == null ? null : clearance.randomCleared();
+    }
+
+    /**
+     * Counts uncleared structures, of one type (case-insensitive) if given.
+     */
+    public int countUncleared(String structureType) {
+        Clearance clearance = clearance(structureType);
+        return clearance == null ? 0 : clearance.unclearedPositions().length;
+    }
+
+    private Clearance clearance(String structureType) {
+        return structureType == null ? clearanceAll : clearanceByType.get(typeKey(structureType));
+    }
+
+    /**
+     * Finds the structure at the given x/z, or null if there is none.
+     */
+    public StructureData find(int x, int z) {
+        int slot = Arrays.binarySearch(coordinateKeys, coordinateKey(x, z));
+        return slot < 0 ? null : all[coordinatePositions[slot]];
+    }
+
+    /**
+     * Gets all structure types present in the world.
+     */
+    public Set<String> getTypes() {
+        return types;
+    }
+}
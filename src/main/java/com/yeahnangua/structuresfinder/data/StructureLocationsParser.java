@@ -0,0 +1,570 @@
+package com.yeahnangua.structuresfinder.data;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Parser for BetterStructures structure_locations files.
+ *
+ * <p>The files have a fixed layout ({@code structures.<key>.{x,y,z,schematic,type,cleared}}),
+ * so instead of building a full YAML tree this scans the memory-mapped file line by line and
+ * emits {@link StructureData} directly. Anything outside that layout (flow style, anchors,
+ * multi-line scalars, tabs...) makes the scanner give up and fall back to {@link YamlConfiguration}.
+ *
+ * <p>BetterStructures appends new entries to the end of the file. A streaming parse records where
+ * the last entry starts and a checksum of the bytes read, so when the file only grew the scan can
+ * continue from that entry instead of starting over.
+ */
+public final class StructureLocationsParser {
+
+    private static final byte[] KEY_STRUCTURES = bytes("structures");
+    private static final byte[] KEY_X = bytes("x");
+    private static final byte[] KEY_Y = bytes("y");
+    private static final byte[] KEY_Z = bytes("z");
+    private static final byte[] KEY_SCHEMATIC = bytes("schematic");
+    private static final byte[] KEY_TYPE = bytes("type");
+    private static final byte[] KEY_CLEARED = bytes("cleared");
+
+    private StructureLocationsParser() {
+    }
+
+    /**
+     * Structures read by a parse, plus the point to continue from if the file is appended to.
+     *
+     * @param resume null if the parse cannot be continued, e.g. after a YAML fallback
+     */
+    public record ParseResult(List<StructureData> structures, Resume resume) {
+    }
+
+    /**
+     * Scanner state at the end of a streaming parse.
+     *
+     * @param parsedSize  bytes read
+     * @param checksum    CRC32C of those bytes
+     * @param entryOffset offset of the last entry, which is read again when continuing
+     *                    since it may have been cut short; parsedSize if there is none
+     * @param hasEntry    whether the structures read end with the entry at entryOffset
+     */
+    public record Resume(long parsedSize, long checksum, long entryOffset, boolean hasEntry,
+                         int entryIndent, int fieldIndent) {
+    }
+
+    /**
+     * Parses a file like {@link #parse}, also returning the state to continue from.
+     */
+    public static ParseResult parseResumable(String worldName, File file, Logger logger) {
+        try {
+            return parseStreamingResumable(worldName, file);
+        } catch (UnexpectedFormatException e) {
+            logger.warning("[索引] " + file.getName() + " 格式非预期 (" + e.getMessage() + "), 使用完整 YAML 解析");
+        } catch (IOException e) {
+            logger.warning("[索引] 无法映射 " + file.getName() + " (" + e.getMessage() + "), 使用完整 YAML 解析");
+        }
+        return new ParseResult(parseWithYaml(worldName, file), null);
+    }
+
+    /**
+     * Parses only what was appended since the parse that produced the given state.
+     * The returned structures start with the entry at {@link Resume#entryOffset()} if
+     * {@link Resume#hasEntry()} is set, so that entry replaces the last one read before.
+     *
+     * @return null if the file did not just grow, i.e. bytes before the old end changed
+     * @throws UnexpectedFormatException if the appended part does not follow the fixed layout
+     */
+    public static ParseResult parseAppended(String worldName, File file, Resume resume) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= resume.parsedSize()) {
+                return null;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new UnexpectedFormatException("file larger than 2 GB");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int parsedSize = (int) resume.parsedSize();
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(0, parsedSize));
+            if (crc.getValue() != resume.checksum()) {
+                return null;
+            }
+            crc.update(buffer.slice(parsedSize, (int) size - parsedSize));
+
+            int offset = (int) resume.entryOffset();
+            Scanner scanner = new Scanner(worldName, buffer.slice(offset, (int) size - offset), offset, resume);
+            List<StructureData> structures = scanner.scan();
+            return new ParseResult(structures, scanner.resume(size, crc.getValue()));
+        }
+    }
+
+    /**
+     * Parses a file with the streaming scanner, falling back to the YAML parser
+     * if the file does not follow the expected layout.
+     */
+    public static List<StructureData> parse(String worldName, File file, Logger logger) {
+        try {
+            return parseStreaming(worldName, file);
+        } catch (UnexpectedFormatException e) {
+            logger.warning("[索引] " + file.getName() + " 格式非预期 (" + e.getMessage() + "), 使用完整 YAML 解析");
+        } catch (IOException e) {
+            logger.warning("[索引] 无法映射 " + file.getName() + " (" + e.getMessage() + "), 使用完整 YAML 解析");
+        }
+        return parseWithYaml(worldName, file);
+    }
+
+    /**
+     * Parses a file through {@link YamlConfiguration}, building the full configuration tree.
+     */
+    public static List<StructureData> parseWithYaml(String worldName, File file) {
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+        ConfigurationSection structuresSection = config.getConfigurationSection("structures");
+
+        if (structuresSection == null) {
+            return Collections.emptyList();
+        }
+
+        List<StructureData> structures = new ArrayList<>();
+
+        for (String key : structuresSection.getKeys(false)) {
+            ConfigurationSection locationSection = structuresSection.getConfigurationSection(key);
+            if (locationSection == null) continue;
+
+            int x = locationSection.getInt("x");
+            int y = locationSection.getInt("y");
+            int z = locationSection.getInt("z");
+            String schematic = locationSection.getString("schematic", "unknown");
+            String type = locationSection.getString("type", "UNDEFINED");
+            boolean cleared = locationSection.getBoolean("cleared", false);
+
+            structures.add(new StructureData(worldName, x, y, z, schematic, type, cleared));
+        }
+
+        return structures;
+    }
+
+    /**
+     * Parses a file with the streaming scanner only.
+     *
+     * @throws UnexpectedFormatException if the file does not follow the fixed layout
+     */
+    public static List<StructureData> parseStreaming(String worldName, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new UnexpectedFormatException("file larger than 2 GB");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new Scanner(worldName, buffer, 0, null).scan();
+        }
+    }
+
+    /**
+     * Parses a file with the streaming scanner only, also returning the state to continue from.
+     *
+     * @throws UnexpectedFormatException if the file does not follow the fixed layout
+     */
+    public static ParseResult parseStreamingResumable(String worldName, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new UnexpectedFormatException("file larger than 2 GB");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            Scanner scanner = new Scanner(worldName, buffer, 0, null);
+            List<StructureData> structures = scanner.scan();
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(0, (int) size));
+            return new ParseResult(structures, scanner.resume(size, crc.getValue()));
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Thrown when the streaming scanner meets something outside the fixed layout.
+     */
+    public static class UnexpectedFormatException extends RuntimeException {
+        public UnexpectedFormatException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Single-use line scanner over a mapped file, or over the part of it after a resume point.
+     */
+    private static final class Scanner {
+
+        private final String worldName;
+        private final ByteBuffer buf;
+        private final int limit;
+        // Offset of buf in the file
+        private final int base;
+        private final List<StructureData> structures = new ArrayList<>();
+        // Schematic and type names repeat heavily, share one String per distinct value
+        private final Map<String, String> strings = new HashMap<>();
+
+        private int line;
+
+        // Section state
+        private boolean inStructures;
+        private boolean skippingBlock;
+        private int entryIndent = -1;
+        private int fieldIndent = -1;
+        private int entryStart = -1;
+
+        // Current entry fields
+        private boolean inEntry;
+        private int x, y, z;
+        private String schematic, type;
+        private boolean cleared;
+
+        // Current line
+        private int keyStart, keyEnd;
+        private int valueStart, valueEnd;
+        private boolean valueQuoted;
+
+        Scanner(String worldName, ByteBuffer buf, int base, Resume resume) {
+            this.worldName = worldName;
+            this.buf = buf;
+            this.limit = buf.limit();
+            this.base = base;
+            if (resume != null) {
+                inStructures = true;
+                entryIndent = resume.entryIndent();
+                fieldIndent = resume.fieldIndent();
+            }
+        }
+
+        /**
+         * State to continue from, or null if the file does not end inside the structures section.
+         */
+        Resume resume(long size, long checksum) {
+            if (!inStructures) {
+                return null;
+            }
+            boolean hasEntry = entryStart >= 0;
+            return new Resume(size, checksum, hasEntry ? base + entryStart : size, hasEntry, entryIndent, fieldIndent);
+        }
+
+        List<StructureData> scan() {
+            int pos = 0;
+            if (base == 0 && limit >= 3 && buf.get(0) == (byte) 0xEF && buf.get(1) == (byte) 0xBB && buf.get(2) == (byte) 0xBF) {
+                pos = 3; // UTF-8 BOM
+            }
+
+            while (pos < limit) {
+                line++;
+                int lineStart = pos;
+                int lineEnd = pos;
+                while (lineEnd < limit && buf.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int next = lineEnd + 1;
+                if (lineEnd > pos && buf.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+
+                int indent = 0;
+                while (pos + indent < lineEnd && buf.get(pos + indent) == ' ') {
+                    indent++;
+                }
+                int contentStart = pos + indent;
+                pos = next;
+
+                if (contentStart >= lineEnd || buf.get(contentStart) == '#') {
+                    continue; // blank or comment
+                }
+                byte first = buf.get(contentStart);
+                if (first == '\t') {
+                    throw unexpected("tab indentation");
+                }
+                // A dash starts a list item only when followed by a space; "-5,64,7:" is a key
+                boolean listItem = first == '-' && (contentStart + 1 == lineEnd || buf.get(contentStart + 1) == ' ');
+                if (listItem || first == '{' || first == '[' || first == '&' || first == '*'
+                        || first == '!' || first == '?' || first == '%' || first == '|' || first == '>') {
+                    throw unexpected("unsupported YAML construct");
+                }
+
+                splitKeyValue(contentStart, lineEnd);
+
+                if (indent == 0) {
+                    flushEntry();
+                    skippingBlock = false;
+                    inStructures = false;
+                    entryStart = -1;
+                    if (keyEquals(KEY_STRUCTURES)) {
+                        if (valueStart == valueEnd) {
+                            inStructures = true;
+                        } else if (!valueEquals("{}")) {
+                            throw unexpected("inline structures value");
+                        }
+                    } else if (valueStart == valueEnd) {
+                        skippingBlock = true; // some other top-level section
+                    }
+                    continue;
+                }
+
+                if (skippingBlock) {
+                    continue;
+                }
+                if (!inStructures) {
+                    throw unexpected("unexpected indentation");
+                }
+
+                if (entryIndent == -1) {
+                    entryIndent = indent;
+                }
+
+                if (indent == entryIndent) {
+                    flushEntry();
+                    if (valueStart != valueEnd) {
+                        throw unexpected("inline structure entry");
+                    }
+                    inEntry = true;
+                    entryStart = lineStart;
+                    continue;
+                }
+
+                if (!inEntry || indent < entryIndent) {
+                    throw unexpected("unexpected indentation");
+                }
+                if (fieldIndent == -1) {
+                    fieldIndent = indent;
+                } else if (indent != fieldIndent) {
+                    throw unexpected("nested structure field");
+                }
+
+                readField();
+            }
+
+            flushEntry();
+            return structures;
+        }
+
+        /**
+         * Splits "key: value" into key and value ranges, unquoting both.
+         */
+        private void splitKeyValue(int start, int end) {
+            int colon;
+            byte first = buf.get(start);
+            if (first == '\'' || first == '"') {
+                int close = start + 1;
+                while (close < end && buf.get(close) != first) {
+                    close++;
+                }
+                if (close >= end) {
+                    throw unexpected("unterminated quoted key");
+                }
+                keyStart = start + 1;
+                keyEnd = close;
+                colon = close + 1;
+                if (colon >= end || buf.get(colon) != ':') {
+                    throw unexpected("missing ':' after key");
+                }
+            } else {
+                colon = start;
+                while (colon < end && !(buf.get(colon) == ':' && (colon + 1 == end || buf.get(colon + 1) == ' '))) {
+                    colon++;
+                }
+                if (colon >= end) {
+                    throw unexpected("missing ':'");
+                }
+                keyStart = start;
+                keyEnd = colon;
+            }
+
+            int vs = colon + 1;
+            while (vs < end && buf.get(vs) == ' ') {
+                vs++;
+            }
+            valueQuoted = false;
+            if (vs >= end || buf.get(vs) == '#') {
+                valueStart = valueEnd = vs;
+                return;
+            }
+
+            byte q = buf.get(vs);
+            if (q == '\'' || q == '"') {
+                int close = vs + 1;
+                while (close < end && buf.get(close) != q) {
+                    if (buf.get(close) == '\\' && q == '"') {
+                        throw unexpected("escaped string");
+                    }
+                    close++;
+                }
+                if (close >= end || (q == '\'' && close + 1 < end && buf.get(close + 1) == '\'')) {
+                    throw unexpected("multi-line or escaped string");
+                }
+                valueStart = vs + 1;
+                valueEnd = close;
+                valueQuoted = true;
+                return;
+            }
+
+            if (q == '{' || q == '[' || q == '&' || q == '*' || q == '!' || q == '|' || q == '>') {
+                if (valueEqualsAt(vs, end, "{}")) {
+                    valueStart = vs;
+                    valueEnd = vs + 2;
+                    return;
+                }
+                throw unexpected("unsupported value");
+            }
+
+            int ve = vs;
+            while (ve < end && !(buf.get(ve) == '#' && buf.get(ve - 1) == ' ')) {
+                ve++;
+            }
+            while (ve > vs && buf.get(ve - 1) == ' ') {
+                ve--;
+            }
+            valueStart = vs;
+            valueEnd = ve;
+        }
+
+        private void readField() {
+            if (keyEquals(KEY_X)) {
+                x = parseInt();
+            } else if (keyEquals(KEY_Y)) {
+                y = parseInt();
+            } else if (keyEquals(KEY_Z)) {
+                z = parseInt();
+            } else if (keyEquals(KEY_SCHEMATIC)) {
+                schematic = parseString();
+            } else if (keyEquals(KEY_TYPE)) {
+                type = parseString();
+            } else if (keyEquals(KEY_CLEARED)) {
+                cleared = parseBoolean();
+            } else if (valueStart == valueEnd) {
+                throw unexpected("unknown nested field");
+            }
+            // Unknown scalar fields are ignored, like the YAML loader does
+        }
+
+        private void flushEntry() {
+            if (inEntry) {
+                structures.add(new StructureData(worldName, x, y, z,
+                        schematic != null ? schematic : "unknown",
+                        type != null ? type : "UNDEFINED",
+                        cleared));
+            }
+            inEntry = false;
+            x = y = z = 0;
+            schematic = null;
+            type = null;
+            cleared = false;
+        }
+
+        private int parseInt() {
+            int i = valueStart;
+            if (i == valueEnd || valueQuoted) {
+                throw unexpected("non-integer coordinate");
+            }
+            boolean negative = false;
+            byte sign = buf.get(i);
+            if (sign == '-' || sign == '+') {
+                negative = sign == '-';
+                i++;
+            }
+            if (i == valueEnd || valueEnd - i > 10) {
+                throw unexpected("non-integer coordinate");
+            }
+            long result = 0;
+            for (; i < valueEnd; i++) {
+                int digit = buf.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw unexpected("non-integer coordinate");
+                }
+                result = result * 10 + digit;
+            }
+            if (negative) {
+                result = -result;
+            }
+            if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+                throw unexpected("coordinate out of range");
+            }
+            return (int) result;
+        }
+
+        private boolean parseBoolean() {
+            if (!valueQuoted) {
+                if (valueEqualsIgnoreCase("true")) {
+                    return true;
+                }
+                if (valueEqualsIgnoreCase("false")) {
+                    return false;
+                }
+            }
+            throw unexpected("non-boolean cleared flag");
+        }
+
+        private String parseString() {
+            int length = valueEnd - valueStart;
+            if (length == 0) {
+                return valueQuoted ? "" : null;
+            }
+            if (!valueQuoted && (valueEqualsIgnoreCase("null") || valueEquals("~"))) {
+                return null;
+            }
+            byte[] raw = new byte[length];
+            buf.get(valueStart, raw);
+            String value = new String(raw, StandardCharsets.UTF_8);
+            return strings.computeIfAbsent(value, v -> v);
+        }
+
+        private boolean keyEquals(byte[] expected) {
+            if (keyEnd - keyStart != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                if (buf.get(keyStart + i) != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean valueEquals(String expected) {
+            return valueEnd - valueStart == expected.length() && valueEqualsAt(valueStart, valueEnd, expected);
+        }
+
+        private boolean valueEqualsAt(int start, int end, String expected) {
+            if (end - start < expected.length()) {
+                return false;
+            }
+            for (int i = 0; i < expected.length(); i++) {
+                if (buf.get(start + i) != expected.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean valueEqualsIgnoreCase(String expected) {
+            if (valueEnd - valueStart != expected.length()) {
+                return false;
+            }
+            for (int i = 0; i < expected.length(); i++) {
+                if (Character.toLowerCase((char) buf.get(valueStart + i)) != expected.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private UnexpectedFormatException unexpected(String reason) {
+            return new UnexpectedFormatException(reason + " at line " + line);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.yeahnangua.structuresfinder.data;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Immutable grid-bucketed spatial index over structure x/z coordinates.
+ *
+ * <p>Structures are sorted by grid cell, so each non-empty cell is a contiguous
+ * slice of one array. Queries only visit the cells that can contain a match.
+ */
+public final class StructureSpatialIndex {
+
+    private static final int CELL_SHIFT = 8; // 256-block cells
+    private static final int CELL_SIZE = 1 << CELL_SHIFT;
+
+    private final StructureData[] structures;
+    private final long[] cellKeys;
+    private final int[] cellStart;
+    private final int minCellX, maxCellX, minCellZ, maxCellZ;
+
+    private StructureSpatialIndex(StructureData[] structures, long[] cellKeys, int[] cellStart,
+                                  int minCellX, int maxCellX, int minCellZ, int maxCellZ) {
+        this.structures = structures;
+        this.cellKeys = cellKeys;
+        this.cellStart = cellStart;
+        this.minCellX = minCellX;
+        this.maxCellX = maxCellX;
+        this.minCellZ = minCellZ;
+        this.maxCellZ = maxCellZ;
+    }
+
+    /**
+     * Builds an index over the given structures. The array is not modified.
+     */
+    public static StructureSpatialIndex build(StructureData[] input) {
+        int n = input.length;
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = cellKeyOf(input[i]);
+        }
+
+        // Distinct cell keys in order
+        long[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        int cells = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || sortedKeys[i] != sortedKeys[cells - 1]) {
+                sortedKeys[cells++] = sortedKeys[i];
+            }
+        }
+        long[] cellKeys = Arrays.copyOf(sortedKeys, cells);
+
+        // Counting sort of the structures into their cells
+        int[] cellOf = new int[n];
+        int[] cellStart = new int[cells + 1];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = Arrays.binarySearch(cellKeys, keys[i]);
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        StructureData[] sorted = new StructureData[n];
+        int[] fill = Arrays.copyOf(cellStart, cells);
+        for (int i = 0; i < n; i++) {
+            sorted[fill[cellOf[i]]++] = input[i];
+        }
+
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minZ = Integer.MAX_VALUE, maxZ = Integer.MIN_VALUE;
+        for (StructureData data : input) {
+            int cx = data.x() >> CELL_SHIFT;
+            int cz = data.z() >> CELL_SHIFT;
+            minX = Math.min(minX, cx);
+            maxX = Math.max(maxX, cx);
+            minZ = Math.min(minZ, cz);
+            maxZ = Math.max(maxZ, cz);
+        }
+
+        return new StructureSpatialIndex(sorted, cellKeys, cellStart, minX, maxX, minZ, maxZ);
+    }
+
+    /**
+     * Returns a copy with {@code added} put into their cells and {@code replaced}, if not null, taken out.
+     * Only the added structures are sorted; the existing cells are copied over in order.
+     *
+     * @throws IllegalArgumentException if {@code replaced} is not in this index
+     */
+    public StructureSpatialIndex withAppended(StructureData[] added, StructureData replaced) {
+        int removedAt = -1;
+        if (replaced != null) {
+            int cell = Arrays.binarySearch(cellKeys, cellKeyOf(replaced));
+            for (int i = cell < 0 ? 0 : cellStart[cell]; cell >= 0 && i < cellStart[cell + 1]; i++) {
+                if (structures[i] == replaced) {
+                    removedAt = i;
+                    break;
+                }
+            }
+            if (removedAt < 0) {
+                throw new IllegalArgumentException("Structure is not in this index: " + replaced);
+            }
+        }
+
+        StructureData[] sortedAdded = added.clone();
+        Arrays.sort(sortedAdded, Comparator.comparingLong(StructureSpatialIndex::cellKeyOf));
+        int n = structures.length - (removedAt < 0 ? 0 : 1) + sortedAdded.length;
+        StructureData[] merged = new StructureData[n];
+        long[] keys = new long[cellKeys.length + sortedAdded.length];
+        int[] starts = new int[keys.length + 1];
+        int cells = 0, out = 0, next = 0;
+        for (int c = 0; c <= cellKeys.length; c++) {
+            // Cells before this one that only hold added structures, or all that remain after the last cell
+            while (next < sortedAdded.length && (c == cellKeys.length || cellKeyOf(sortedAdded[next]) < cellKeys[c])) {
+                long key = cellKeyOf(sortedAdded[next]);
+                keys[cells] = key;
+                starts[cells++] = out;
+                while (next < sortedAdded.length && cellKeyOf(sortedAdded[next]) == key) {
+                    merged[out++] = sortedAdded[next++];
+                }
+            }
+            if (c == cellKeys.length) {
+                break;
+            }
+            int begin = out;
+            for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+                if (i != removedAt) {
+                    merged[out++] = structures[i];
+                }
+            }
+            while (next < sortedAdded.length && cellKeyOf(sortedAdded[next]) == cellKeys[c]) {
+                merged[out++] = sortedAdded[next++];
+            }
+            if (out > begin) {
+                keys[cells] = cellKeys[c];
+                starts[cells++] = begin;
+            }
+        }
+        starts[cells] = out;
+
+        // The bounds only grow; a removed structure leaves them wider than needed, which queries tolerate
+        int minX = minCellX, maxX = maxCellX, minZ = minCellZ, maxZ = maxCellZ;
+        for (StructureData data : sortedAdded) {
+            int cx = data.x() >> CELL_SHIFT;
+            int cz = data.z() >> CELL_SHIFT;
+            minX = Math.min(minX, cx);
+            maxX = Math.max(maxX, cx);
+            minZ = Math.min(minZ, cz);
+            maxZ = Math.max(maxZ, cz);
+        }
+
+        return new StructureSpatialIndex(merged, Arrays.copyOf(keys, cells), Arrays.copyOf(starts, cells + 1),
+                minX, maxX, minZ, maxZ);
+    }
+
+    private static long cellKeyOf(StructureData data) {
+        return cellKey(data.x() >> CELL_SHIFT, data.z() >> CELL_SHIFT);
+    }
+
+    /**
+     * Orders cells by x, then z. The z half is flipped to unsigned so negative values sort first.
+     */
+    private static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | ((cellZ ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+    }
+
+    public int size() {
+        return structures.length;
+    }
+
+    /**
+     * Finds up to {@code count} structures closest to (x, z), nearest first.
+     *
+     * @param filter optional filter, null accepts everything
+     */
+    public List<StructureData> nearest(int x, int z, int count, Predicate<StructureData> filter) {
+        if (count <= 0 || structures.length == 0) {
+            return Collections.emptyList();
+        }
+
+        // Max-heap on distance, holds the best candidates found so far
+        PriorityQueue<long[]> best = new PriorityQueue<>(Math.min(count, structures.length) + 1, (a, b) -> Long.compare(b[0], a[0]));
+        int originX = x >> CELL_SHIFT;
+        int originZ = z >> CELL_SHIFT;
+        // Rings are squares of cells around the origin; skip those that miss the data entirely
+        int firstRing = Math.max(0, Math.max(
+                Math.max(minCellX - originX, originX - maxCellX),
+                Math.max(minCellZ - originZ, originZ - maxCellZ)));
+        int lastRing = Math.max(
+                Math.max(Math.abs(originX - minCellX), Math.abs(maxCellX - originX)),
+                Math.max(Math.abs(originZ - minCellZ), Math.abs(maxCellZ - originZ)));
+
+        for (int ring = firstRing; ring <= lastRing; ring++) {
+            if (best.size() == count && ring > 0) {
+                // Anything in this ring or beyond is more than (ring - 1) cells away
+                long reach = (long) (ring - 1) * CELL_SIZE;
+                if (best.peek()[0] <= reach * reach) {
+                    break;
+                }
+            }
+            int fromX = Math.max(minCellX, originX - ring);
+            int toX = Math.min(maxCellX, originX + ring);
+            int fromZ = Math.max(minCellZ, originZ - ring);
+            int toZ = Math.min(maxCellZ, originZ + ring);
+            for (int cx = fromX; cx <= toX; cx++) {
+                if (cx == originX - ring || cx == originX + ring) {
+                    for (int cell = firstCell(cx, fromZ), last = lastCell(cx, toZ); cell < last; cell++) {
+                        offer(best, count, cell, x, z, filter);
+                    }
+                } else {
+                    if (originZ - ring >= minCellZ) {
+                        offer(best, count, Arrays.binarySearch(cellKeys, cellKey(cx, originZ - ring)), x, z, filter);
+                    }
+                    if (ring > 0 && originZ + ring <= maxCellZ) {
+                        offer(best, count, Arrays.binarySearch(cellKeys, cellKey(cx, originZ + ring)), x, z, filter);
+                    }
+                }
+            }
+        }
+
+        long[][] found = best.toArray(new long[0][]);
+        Arrays.sort(found, Comparator.comparingLong(entry -> entry[0]));
+        List<StructureData> result = new ArrayList<>(found.length);
+        for (long[] entry : found) {
+            result.add(structures[(int) entry[1]]);
+        }
+        return result;
+    }
+
+    /**
+     * Finds all structures within {@code radius} blocks of (x, z).
+     *
+     * @param filter optional filter, null accepts everything
+     */
+    public List<StructureData> withinRadius(int x, int z, int radius, Predicate<StructureData> filter) {
+        return withinRing(x, z, 0, radius, filter);
+    }
+
+    /**
+     * Finds all structures whose distance from (x, z) lies in [minRadius, maxRadius].
+     *
+     * @param filter optional filter, null accepts everything
+     */
+    public List<StructureData> withinRing(int x, int z, int minRadius, int maxRadius, Predicate<StructureData> filter) {
+        List<StructureData> result = new ArrayList<>();
+        if (maxRadius < 0 || maxRadius < minRadius || structures.length == 0) {
+            return result;
+        }
+
+        long minSquared = (long) minRadius * minRadius;
+        long maxSquared = (long) maxRadius * maxRadius;
+        int fromX = Math.max(minCellX, (int) ((x - (long) maxRadius) >> CELL_SHIFT));
+        int toX = Math.min(maxCellX, (int) ((x + (long) maxRadius) >> CELL_SHIFT));
+        int fromZ = Math.max(minCellZ, (int) ((z - (long) maxRadius) >> CELL_SHIFT));
+        int toZ = Math.min(maxCellZ, (int) ((z + (long) maxRadius) >> CELL_SHIFT));
+
+        for (int cx = fromX; cx <= toX; cx++) {
+            for (int cell = firstCell(cx, fromZ), last = lastCell(cx, toZ); cell < last; cell++) {
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    StructureData data = structures[i];
+                    long distance = distanceSquared(data, x, z);
+                    if (distance < minSquared || distance > maxSquared) continue;
+                    if (filter != null && !filter.test(data)) continue;
+                    result.add(data);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Index of the first non-empty cell at or after (cellX, fromZ).
+     * Cells of one column are contiguous, so a column range is walked from here.
+     */
+    private int firstCell(int cellX, int fromZ) {
+        int cell = Arrays.binarySearch(cellKeys, cellKey(cellX, fromZ));
+        return cell < 0 ? -cell - 1 : cell;
+    }
+
+    /**
+     * Index just past the last non-empty cell at or before (cellX, toZ).
+     */
+    private int lastCell(int cellX, int toZ) {
+        int cell = Arrays.binarySearch(cellKeys, cellKey(cellX, toZ));
+        return cell < 0 ? -cell - 1 : cell + 1;
+    }
+
+    private void offer(PriorityQueue<long[]> best, int count, int cell, int x, int z, Predicate<StructureData> filter) {
+        if (cell < 0) {
+            return;
+        }
+        if (best.size() == count && cellDistanceSquared(cellKeys[cell], x, z) > best.peek()[0]) {
+            return; // the whole cell is farther than the current worst candidate
+        }
+        for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+            StructureData data = structures[i];
+            if (filter != null && !filter.test(data)) continue;
+            long distance = distanceSquared(data, x, z);
+            if (best.size() < count) {
+                best.add(new long[]{distance, i});
+            } else if (distance < best.peek()[0]) {
+                best.poll();
+                best.add(new long[]{distance, i});
+            }
+        }
+    }
+
+    /**
+     * Squared distance from (x, z) to the closest point of a cell.
+     */
+    private static long cellDistanceSquared(long cellKey, int x, int z) {
+        long minX = (long) (int) (cellKey >> 32) << CELL_SHIFT;
+        long minZ = (long) ((int) cellKey ^ Integer.MIN_VALUE) << CELL_SHIFT;
+        long dx = Math.max(0, Math.max(minX - x, x - (minX + CELL_SIZE - 1)));
+        long dz = Math.max(0, Math.max(minZ - z, z - (minZ + CELL_SIZE - 1)));
+        return dx * dx + dz * dz;
+    }
+
+    private static long distanceSquared(StructureData data, int x, int z) {
+        long dx = data.x() - (long) x;
+        long dz = data.z() - (long) z;
+        return dx * dx + dz * dz;
+    }
+}
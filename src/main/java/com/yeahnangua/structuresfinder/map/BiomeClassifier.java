@@ -0,0 +1,109 @@
+package com.yeahnangua.structuresfinder.map;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.block.Biome;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps biomes to {@link BiomeType} classes using configured exact names and keywords.
+ *
+ * <p>Rules are checked in order water, snowy, forest, plains (snowy before forest
+ * because snowy_taiga matches both); anything else is {@link BiomeType#OTHER}.
+ * Results are memoised per biome key, so after the first sample of a biome
+ * classification is a single hash lookup.
+ */
+public final class BiomeClassifier {
+
+    private final List<Rule> rules;
+    private final ConcurrentHashMap<NamespacedKey, BiomeType> memo = new ConcurrentHashMap<>();
+    private final long fingerprint;
+
+    private BiomeClassifier(List<Rule> rules) {
+        this.rules = rules;
+        long hash = 17;
+        for (Rule rule : rules) {
+            hash = hash * 31 + rule.type().ordinal();
+            hash = hash * 31 + rule.exact().hashCode();
+            hash = hash * 31 + rule.keywords().hashCode();
+        }
+        this.fingerprint = hash;
+    }
+
+    /**
+     * Creates an empty builder. Add rules in priority order.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Classifies a biome.
+     */
+    public BiomeType classify(Biome biome) {
+        NamespacedKey key = biome.getKey();
+        BiomeType type = memo.get(key);
+        if (type == null) {
+            type = compute(key);
+            memo.put(key, type);
+        }
+        return type;
+    }
+
+    private BiomeType compute(NamespacedKey key) {
+        String name = key.toString();
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        for (Rule rule : rules) {
+            if (rule.exact().contains(name)) {
+                return rule.type();
+            }
+            for (String keyword : rule.keywords()) {
+                if (lowerName.contains(keyword)) {
+                    return rule.type();
+                }
+            }
+        }
+        return BiomeType.OTHER;
+    }
+
+    /**
+     * Hash of the rules; terrain classified under different rules is stale.
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    private record Rule(BiomeType type, Set<String> exact, List<String> keywords) {
+    }
+
+    public static final class Builder {
+
+        private final List<Rule> rules = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a rule. Exact names are case-sensitive "namespace:path" keys,
+         * keywords match case-insensitively anywhere in the key.
+         */
+        public Builder rule(BiomeType type, List<String> exact, List<String> keywords) {
+            List<String> lowerKeywords = new ArrayList<>();
+            for (String keyword : keywords) {
+                if (!keyword.isEmpty()) {
+                    lowerKeywords.add(keyword.toLowerCase(Locale.ROOT));
+                }
+            }
+            rules.add(new Rule(type, Set.copyOf(exact), List.copyOf(lowerKeywords)));
+            return this;
+        }
+
+        public BiomeClassifier build() {
+            return new BiomeClassifier(List.copyOf(rules));
+        }
+    }
+}
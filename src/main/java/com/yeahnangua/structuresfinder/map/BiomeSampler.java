@@ -0,0 +1,135 @@
+package com.yeahnangua.structuresfinder.map;
+
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+import org.bukkit.generator.BiomeProvider;
+import org.bukkit.generator.ChunkGenerator;
+
+import java.util.Locale;
+
+/**
+ * Source of biome samples for terrain computation. Safe to call from async threads.
+ *
+ * <p>Modes:
+ * <ul>
+ *     <li>{@code provider}: asks the world generator's {@link BiomeProvider} directly,
+ *     which never touches chunks. Only available for worlds with a custom generator
+ *     (Terra and similar).</li>
+ *     <li>{@code generated}: reads {@link World#getBiome} only where the chunk has been
+ *     generated. Saved chunks may be loaded from disk, but none are generated.</li>
+ *     <li>{@code loaded}: reads {@link World#getBiome} only where the chunk is already
+ *     loaded; everything else is left unsampled.</li>
+ *     <li>{@code legacy}: plain {@link World#getBiome}, which may load or generate chunks.</li>
+ *     <li>{@code auto}: {@code provider} when available, otherwise {@code generated}.</li>
+ * </ul>
+ */
+public interface BiomeSampler {
+
+    /**
+     * Samples the biome at a block position.
+     *
+     * @return the biome, or null if it cannot be read without loading a chunk
+     */
+    Biome sample(int x, int y, int z);
+
+    /**
+     * Name of the backend actually in use, for logging.
+     */
+    String name();
+
+    /**
+     * Creates a sampler for a world.
+     *
+     * @param mode one of auto, provider, generated, loaded, legacy (case-insensitive); unknown values mean auto
+     */
+    static BiomeSampler create(World world, String mode) {
+        String normalized = mode == null ? "auto" : mode.toLowerCase(Locale.ROOT);
+        switch (normalized) {
+            case "legacy":
+                return legacy(world);
+            case "loaded":
+                return loadedOnly(world);
+            case "generated":
+                return generatedOnly(world);
+            default:
+                // provider and auto: fall back to generated chunks, never to chunk generation
+                BiomeProvider provider = findProvider(world);
+                return provider != null ? provider(world, provider) : generatedOnly(world);
+        }
+    }
+
+    /**
+     * Finds the biome provider of a world: the one set on the world itself,
+     * otherwise the generator's default. Returns null for vanilla worlds.
+     */
+    static BiomeProvider findProvider(World world) {
+        BiomeProvider provider = world.getBiomeProvider();
+        if (provider != null) {
+            return provider;
+        }
+        ChunkGenerator generator = world.getGenerator();
+        return generator != null ? generator.getDefaultBiomeProvider(world) : null;
+    }
+
+    static BiomeSampler provider(World world, BiomeProvider provider) {
+        return new BiomeSampler() {
+            @Override
+            public Biome sample(int x, int y, int z) {
+                return provider.getBiome(world, x, y, z);
+            }
+
+            @Override
+            public String name() {
+                return "provider";
+            }
+        };
+    }
+
+    static BiomeSampler generatedOnly(World world) {
+        return new BiomeSampler() {
+            @Override
+            public Biome sample(int x, int y, int z) {
+                if (!world.isChunkGenerated(x >> 4, z >> 4)) {
+                    return null;
+                }
+                return world.getBiome(x, y, z);
+            }
+
+            @Override
+            public String name() {
+                return "generated";
+            }
+        };
+    }
+
+    static BiomeSampler loadedOnly(World world) {
+        return new BiomeSampler() {
+            @Override
+            public Biome sample(int x, int y, int z) {
+                if (!world.isChunkLoaded(x >> 4, z >> 4)) {
+                    return null;
+                }
+                return world.getBiome(x, y, z);
+            }
+
+            @Override
+            public String name() {
+                return "loaded";
+            }
+        };
+    }
+
+    static BiomeSampler legacy(World world) {
+        return new BiomeSampler() {
+            @Override
+            public Biome sample(int x, int y, int z) {
+                return world.getBiome(x, y, z);
+            }
+
+            @Override
+            public String name() {
+                return "legacy";
+            }
+        };
+    }
+}
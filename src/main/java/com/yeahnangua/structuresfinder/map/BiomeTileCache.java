@@ -0,0 +1,212 @@
+package com.yeahnangua.structuresfinder.map;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded LRU cache of sampled biome classes, shared by all terrain computations.
+ *
+ * <p>Samples are snapped to a world-aligned lattice with the sample spacing in blocks
+ * (sample resolution x map scale), so maps over overlapping areas read the same lattice
+ * points. A tile holds {@value #TILE_SIZE}x{@value #TILE_SIZE} lattice points. Tiles are
+ * keyed by the classification fingerprint as well, so tiles sampled under old rules are
+ * never read and simply age out. UNKNOWN samples are not stored and are retried next time.
+ *
+ * <p>Lattices of different scales nest: point (x, z) at spacing s is point (2x, 2z) at
+ * spacing s / 2, so a coarse point can be taken from a finer tile without sampling.
+ */
+public final class BiomeTileCache {
+
+    public static final int TILE_SIZE = 16;
+    private static final int TILE_SHIFT = 4;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    private static final byte NOT_SAMPLED = -1;
+
+    private static final int MAGIC = 0x53465443; // "SFTC"
+    private static final int VERSION = 1;
+
+    private record TileKey(long fingerprint, String world, int spacing, int tileX, int tileZ) {
+    }
+
+    private final int maxTiles;
+    private final LinkedHashMap<TileKey, byte[]> tiles;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+
+    public BiomeTileCache(int maxTiles) {
+        this.maxTiles = maxTiles;
+        this.tiles = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TileKey, byte[]> eldest) {
+                return size() > BiomeTileCache.this.maxTiles;
+            }
+        };
+    }
+
+    /**
+     * Gets the tile containing a lattice point, creating an empty one if needed.
+     * Tile contents are read and written without locking; a lost write only costs a resample.
+     */
+    public byte[] tile(long fingerprint, String world, int spacing, int latticeX, int latticeZ) {
+        TileKey key = new TileKey(fingerprint, world, spacing, latticeX >> TILE_SHIFT, latticeZ >> TILE_SHIFT);
+        synchronized (tiles) {
+            byte[] tile = tiles.get(key);
+            if (tile == null) {
+                tile = new byte[TILE_SIZE * TILE_SIZE];
+                Arrays.fill(tile, NOT_SAMPLED);
+                tiles.put(key, tile);
+            }
+            return tile;
+        }
+    }
+
+    /**
+     * Reads a lattice point without creating its tile.
+     *
+     * @return the cached class, or null if the tile is absent or the point has not been sampled
+     */
+    public BiomeType peek(long fingerprint, String world, int spacing, int latticeX, int latticeZ) {
+        TileKey key = new TileKey(fingerprint, world, spacing, latticeX >> TILE_SHIFT, latticeZ >> TILE_SHIFT);
+        byte[] tile;
+        synchronized (tiles) {
+            tile = tiles.get(key);
+        }
+        return tile != null ? get(tile, latticeX, latticeZ) : null;
+    }
+
+    /**
+     * Reads a lattice point from its tile.
+     *
+     * @return the cached class, or null if the point has not been sampled
+     */
+    public BiomeType get(byte[] tile, int latticeX, int latticeZ) {
+        byte value = tile[index(latticeX, latticeZ)];
+        if (value == NOT_SAMPLED) {
+            return null;
+        }
+        hits.increment();
+        return BiomeType.byOrdinal(value);
+    }
+
+    /**
+     * Stores a sampled lattice point. UNKNOWN is not stored.
+     */
+    public void put(byte[] tile, int latticeX, int latticeZ, BiomeType type) {
+        samples.increment();
+        if (type != BiomeType.UNKNOWN) {
+            tile[index(latticeX, latticeZ)] = (byte) type.ordinal();
+        }
+    }
+
+    /**
+     * Tile coordinate of a lattice coordinate.
+     */
+    public static int tileOf(int lattice) {
+        return lattice >> TILE_SHIFT;
+    }
+
+    private static int index(int latticeX, int latticeZ) {
+        return (latticeZ & TILE_MASK) * TILE_SIZE + (latticeX & TILE_MASK);
+    }
+
+    public int size() {
+        synchronized (tiles) {
+            return tiles.size();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long samples() {
+        return samples.sum();
+    }
+
+    /**
+     * Loads tiles saved by {@link #save}, skipping tiles with a different fingerprint.
+     * Safe to call while maps are being sampled; tiles sampled in the meantime are kept.
+     */
+    public void load(File file, long fingerprint, Logger logger) {
+        if (!file.exists()) {
+            return;
+        }
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.warning("Ignoring biome tile cache with unknown format: " + file.getName());
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                TileKey key = new TileKey(in.readLong(), in.readUTF(), in.readInt(), in.readInt(), in.readInt());
+                byte[] tile = new byte[TILE_SIZE * TILE_SIZE];
+                in.readFully(tile);
+                if (key.fingerprint() == fingerprint) {
+                    // Lock per tile so samplers are not held up by the file read
+                    synchronized (tiles) {
+                        tiles.putIfAbsent(key, tile);
+                    }
+                    loaded++;
+                }
+            }
+        } catch (EOFException e) {
+            logger.warning("Biome tile cache is truncated, kept " + loaded + " tiles");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to load biome tile cache", e);
+        }
+        logger.info("Loaded " + loaded + " biome tiles");
+    }
+
+    /**
+     * Saves all tiles with the given fingerprint, least recently used first.
+     */
+    public void save(File file, long fingerprint, Logger logger) {
+        List<Map.Entry<TileKey, byte[]>> entries = new ArrayList<>();
+        synchronized (tiles) {
+            for (Map.Entry<TileKey, byte[]> entry : tiles.entrySet()) {
+                if (entry.getKey().fingerprint() == fingerprint) {
+                    entries.add(Map.entry(entry.getKey(), entry.getValue().clone()));
+                }
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<TileKey, byte[]> entry : entries) {
+                    TileKey key = entry.getKey();
+                    out.writeLong(key.fingerprint());
+                    out.writeUTF(key.world());
+                    out.writeInt(key.spacing());
+                    out.writeInt(key.tileX());
+                    out.writeInt(key.tileZ());
+                    out.write(entry.getValue());
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to save biome tile cache", e);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.yeahnangua.structuresfinder.map;
+
+/**
+ * Biome classes that explorer maps distinguish, each drawn with its own colour.
+ * UNKNOWN marks cells that could not be sampled without loading a chunk.
+ */
+public enum BiomeType {
+    WATER, FOREST, PLAINS, SNOWY, OTHER, UNKNOWN;
+
+    private static final BiomeType[] VALUES = values();
+
+    /**
+     * Gets a biome type by ordinal without allocating.
+     */
+    public static BiomeType byOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
@@ -3,12 +3,13 @@ package com.yeahnangua.structuresfinder.map;
 import com.yeahnangua.structuresfinder.StructuresFinder;
 import com.yeahnangua.structuresfinder.cache.CachedMapData;
 import com.yeahnangua.structuresfinder.data.StructureData;
+import com.yeahnangua.structuresfinder.metrics.Histogram;
+import com.yeahnangua.structuresfinder.metrics.Metrics;
 import com.yeahnangua.structuresfinder.util.DebugLogger;
 import org.bukkit.Bukkit;
 import org.bukkit.Color;
 import org.bukkit.Material;
 import org.bukkit.World;
-import org.bukkit.block.Biome;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.MapMeta;
@@ -17,12 +18,14 @@ import org.bukkit.map.MapPalette;
 import org.bukkit.map.MapRenderer;
 import org.bukkit.map.MapView;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Random;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.IntStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 /**
  * Creates explorer maps that point to structure locations.
@@ -31,18 +34,22 @@ public class ExplorerMapCreator {
 
     private static final Random random = new Random();
 
+    private static final Histogram mainThreadTimer = Metrics.timer("structuresfinder_map_create_seconds",
+            "Main-thread time spent creating and handing out a map.");
+
     /**
      * Creates an explorer map pointing to a structure and gives it to the player.
      * Uses async computation to avoid blocking the main thread.
      */
     public static boolean createAndGiveMap(Player player, StructureData structure, MapView.Scale scale) {
         long totalStart = System.currentTimeMillis();
-        DebugLogger.log("========== START createAndGiveMap ==========");
-        DebugLogger.log("Player: " + player.getName() + ", Structure: " + structure.schematicName() + ", Scale: " + scale);
+        long deliveryStart = System.nanoTime();
+        DebugLogger.debug("========== START createAndGiveMap ==========");
+        DebugLogger.debug(() -> "Player: " + player.getName() + ", Structure: " + structure.schematicName() + ", Scale: " + scale);
 
         World world = Bukkit.getWorld(structure.worldName());
         if (world == null) {
-            DebugLogger.log("ERROR: World not found: " + structure.worldName());
+            DebugLogger.debug(() -> "ERROR: World not found: " + structure.worldName());
             return false;
         }
 
@@ -50,53 +57,56 @@ public class ExplorerMapCreator {
 
         // Calculate random offset for map center
         int scaleValue = getScaleValue(scale);
-        int maxOffset = 60 * scaleValue;
-
-        int offsetX = random.nextInt(maxOffset * 2 + 1) - maxOffset;
-        int offsetZ = random.nextInt(maxOffset * 2 + 1) - maxOffset;
+        int centerX = structure.x() - randomOffset(scaleValue);
+        int centerZ = structure.z() - randomOffset(scaleValue);
 
-        int centerX = structure.x() - offsetX;
-        int centerZ = structure.z() - offsetZ;
-
-        DebugLogger.log("Map center: (" + centerX + ", " + centerZ + "), scaleValue: " + scaleValue);
+        DebugLogger.debug(() -> "Map center: (" + centerX + ", " + centerZ + "), scaleValue: " + scaleValue);
 
         // Check if explorer map style is enabled
         boolean styleEnabled = plugin.isExplorerMapStyleEnabled();
         int sampleRes = plugin.getSampleResolution();
-        DebugLogger.log("Explorer style enabled: " + styleEnabled + ", sample-resolution: " + sampleRes);
+        DebugLogger.debug(() -> "Explorer style enabled: " + styleEnabled + ", sample-resolution: " + sampleRes);
 
         if (styleEnabled) {
-            // Async compute terrain data, then create map on main thread
-            DebugLogger.log("Starting async terrain computation...");
-            long asyncStart = System.currentTimeMillis();
-
-            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-                DebugLogger.logTiming("Time to start async task", asyncStart);
-
-                long computeStart = System.currentTimeMillis();
-                byte[] terrainData = computeTerrainData(world, centerX, centerZ, scaleValue);
-                DebugLogger.logTiming("computeTerrainData (async)", computeStart);
+            // Compute terrain on the terrain executor, then create map on main thread
+            DebugLogger.debug("Queueing terrain computation...");
+            long computeStart = System.currentTimeMillis();
+
+            computeTerrainData(world, centerX, centerZ, scaleValue, TerrainExecutor.Priority.HIGH).whenComplete((grid, error) -> {
+                byte[] terrainData = null;
+                if (error == null) {
+                    terrainData = renderTerrain(grid);
+                    DebugLogger.logTiming("computeTerrainData (async)", computeStart);
+                } else {
+                    // Still hand out the map, just without the terrain overlay
+                    DebugLogger.warn("Terrain computation failed, giving map without terrain: " + error.getMessage());
+                }
 
-                // Switch back to main thread to create map and give to player
+                // Queue the main-thread part within the per-tick budget
+                byte[] finalTerrain = terrainData;
                 long syncStart = System.currentTimeMillis();
-                Bukkit.getScheduler().runTask(plugin, () -> {
+                plugin.getMainThreadQueue().submit(() -> {
                     DebugLogger.logTiming("Time to switch back to main thread", syncStart);
 
                     long createStart = System.currentTimeMillis();
-                    createMapWithTerrain(player, structure, scale, world, centerX, centerZ, terrainData);
+                    createMapWithTerrain(player, structure, scale, world, centerX, centerZ, finalTerrain);
                     DebugLogger.logTiming("createMapWithTerrain (main thread)", createStart);
+                    recordDelivery("generated", deliveryStart);
                     DebugLogger.logTiming("TOTAL TIME (from command to map given)", totalStart);
-                    DebugLogger.log("========== END createAndGiveMap ==========\n");
+                    DebugLogger.debug("========== END createAndGiveMap ==========\n");
                 });
             });
         } else {
-            // No explorer style, create map directly
-            DebugLogger.log("Explorer style disabled, creating map directly...");
-            long createStart = System.currentTimeMillis();
-            createMapWithTerrain(player, structure, scale, world, centerX, centerZ, null);
-            DebugLogger.logTiming("createMapWithTerrain (no terrain)", createStart);
-            DebugLogger.logTiming("TOTAL TIME", totalStart);
-            DebugLogger.log("========== END createAndGiveMap ==========\n");
+            // No explorer style, create map without terrain
+            DebugLogger.debug("Explorer style disabled, queueing map creation...");
+            plugin.getMainThreadQueue().submit(() -> {
+                long createStart = System.currentTimeMillis();
+                createMapWithTerrain(player, structure, scale, world, centerX, centerZ, null);
+                DebugLogger.logTiming("createMapWithTerrain (no terrain)", createStart);
+                recordDelivery("plain", deliveryStart);
+                DebugLogger.logTiming("TOTAL TIME", totalStart);
+                DebugLogger.debug("========== END createAndGiveMap ==========\n");
+            });
         }
 
         return true;
@@ -104,92 +114,250 @@ public class ExplorerMapCreator {
 
     /**
      * Creates and gives a map from cached data. Used by the cache system.
-     * Must be called from the main thread.
+     * The map is created on the main thread within the per-tick budget.
      */
     public static void createAndGiveMapFromCache(Player player, CachedMapData cachedData) {
-        DebugLogger.log("========== 从缓存创建地图 ==========");
-        DebugLogger.log("玩家: " + player.getName());
-        DebugLogger.log("结构: " + cachedData.structure().schematicName() + " 坐标(" + cachedData.structure().x() + ", " + cachedData.structure().z() + ")");
-        DebugLogger.log("地图中心: (" + cachedData.centerX() + ", " + cachedData.centerZ() + ")");
+        DebugLogger.debug("========== 从缓存创建地图 ==========");
+        DebugLogger.debug(() -> "玩家: " + player.getName());
+        DebugLogger.debug(() -> "结构: " + cachedData.structure().schematicName() + " 坐标(" + cachedData.structure().x() + ", " + cachedData.structure().z() + ")");
+        DebugLogger.debug(() -> "地图中心: (" + cachedData.centerX() + ", " + cachedData.centerZ() + ")");
 
         World world = Bukkit.getWorld(cachedData.structure().worldName());
         if (world == null) {
-            DebugLogger.log("错误: 世界未找到: " + cachedData.structure().worldName());
+            DebugLogger.debug(() -> "错误: 世界未找到: " + cachedData.structure().worldName());
             return;
         }
 
-        long startTime = System.currentTimeMillis();
-        createMapWithTerrain(player, cachedData.structure(), MapView.Scale.FAR,
-                world, cachedData.centerX(), cachedData.centerZ(), cachedData.terrainData());
-        DebugLogger.log("从缓存创建地图完成, 耗时 " + (System.currentTimeMillis() - startTime) + "ms");
+        long deliveryStart = System.nanoTime();
+        StructuresFinder.getInstance().getMainThreadQueue().submit(() -> {
+            long startTime = System.currentTimeMillis();
+            byte[] terrainData = renderTerrain(cachedData.terrain());
+            createMapWithTerrain(player, cachedData.structure(), cachedData.scale(),
+                    world, cachedData.centerX(), cachedData.centerZ(), terrainData);
+            recordDelivery("cache", deliveryStart);
+            DebugLogger.debug(() -> "从缓存创建地图完成, 耗时 " + (System.currentTimeMillis() - startTime) + "ms");
+        });
+    }
+
+    /**
+     * A map with its terrain computed, ready to be handed out on the main thread.
+     *
+     * @param terrain map colours, or null for a map without terrain
+     * @param requestedAt {@link System#nanoTime()} when the map was requested
+     */
+    public record PreparedMap(StructureData structure, MapView.Scale scale, World world,
+                              int centerX, int centerZ, byte[] terrain, long requestedAt) {
+    }
+
+    /**
+     * Picks a map center near the structure and computes its terrain, for handing out later
+     * with {@link #giveMap}. Fails with a {@link RejectedExecutionException} when the terrain
+     * queue is full; other terrain failures give a map without terrain like createAndGiveMap.
+     */
+    public static CompletableFuture<PreparedMap> prepareMap(StructureData structure, MapView.Scale scale,
+                                                           TerrainExecutor.Priority priority) {
+        long requestedAt = System.nanoTime();
+        World world = Bukkit.getWorld(structure.worldName());
+        if (world == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("World not loaded: " + structure.worldName()));
+        }
+
+        int scaleValue = getScaleValue(scale);
+        int centerX = structure.x() - randomOffset(scaleValue);
+        int centerZ = structure.z() - randomOffset(scaleValue);
+        if (!StructuresFinder.getInstance().isExplorerMapStyleEnabled()) {
+            return CompletableFuture.completedFuture(
+                    new PreparedMap(structure, scale, world, centerX, centerZ, null, requestedAt));
+        }
+
+        return computeTerrainData(world, centerX, centerZ, scaleValue, priority).handle((grid, error) -> {
+            byte[] terrain = null;
+            if (error == null) {
+                terrain = renderTerrain(grid);
+            } else {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof RejectedExecutionException rejected) {
+                    throw rejected;
+                }
+                DebugLogger.warn("Terrain computation failed, giving map without terrain: " + cause.getMessage());
+            }
+            return new PreparedMap(structure, scale, world, centerX, centerZ, terrain, requestedAt);
+        });
+    }
+
+    /**
+     * Gives a prepared map to a player on the main thread within the per-tick budget,
+     * then runs the follow-up (if any) right after on the main thread.
+     *
+     * @param then told whether the map was given, false if the player went offline first
+     */
+    public static void giveMap(Player player, PreparedMap map, Consumer<Boolean> then) {
+        StructuresFinder.getInstance().getMainThreadQueue().submit(() -> {
+            boolean online = player.isOnline();
+            if (online) {
+                createMapWithTerrain(player, map.structure(), map.scale(), map.world(), map.centerX(), map.centerZ(), map.terrain());
+                recordDelivery("batch", map.requestedAt());
+            }
+            if (then != null) {
+                then.accept(online);
+            }
+        });
+    }
+
+    /**
+     * Random distance between the map center and the structure along one axis.
+     */
+    public static int randomOffset(int scaleValue) {
+        int maxOffset = 60 * scaleValue;
+        return random.nextInt(maxOffset * 2 + 1) - maxOffset;
+    }
+
+    /**
+     * Records the time from the request to the map being handed out.
+     *
+     * @param source generated, plain (no terrain), cache or batch
+     */
+    private static void recordDelivery(String source, long startNanos) {
+        Metrics.timer("structuresfinder_map_delivery_seconds", "Time from request to map handed out, by source.",
+                "source", source).record(System.nanoTime() - startNanos);
     }
 
     /**
-     * Computes terrain data using parallel processing for better performance.
+     * Computes the compact terrain grid on the plugin's terrain executor, one task per row.
+     * Uses uniform or adaptive sampling depending on config.
      * Public for cache system to use.
+     *
+     * @param priority HIGH for player requests, LOW for cache refills
      */
-    public static byte[] computeTerrainData(World world, int centerX, int centerZ, int scale) {
+    public static CompletableFuture<TerrainGrid> computeTerrainData(World world, int centerX, int centerZ, int scale,
+                                                                   TerrainExecutor.Priority priority) {
         long methodStart = System.currentTimeMillis();
-        DebugLogger.log("--- computeTerrainData START (PARALLEL) ---");
+        long computeStart = System.nanoTime();
+        DebugLogger.debug(() -> "--- computeTerrainData START (" + priority + ") ---");
 
         StructuresFinder plugin = StructuresFinder.getInstance();
-        int sampleRes = plugin.getSampleResolution();
-        DebugLogger.log("sampleRes: " + sampleRes);
+        String mode = plugin.getTerrainSamplingMode();
+        boolean adaptive = TerrainSampling.ADAPTIVE.equals(mode);
+        int step = getTerrainStep();
+        BiomeSampler sampler = BiomeSampler.create(world, plugin.getBiomeSamplerMode());
+        DebugLogger.debug(() -> "mode: " + mode + ", step: " + step + ", sampler: " + sampler.name());
+
+        TerrainSampling.Context context = new TerrainSampling.Context(plugin.getBiomeClassifier(), sampler,
+                plugin.getBiomeTileCache(), getTileFingerprint(), world.getName(), centerX, centerZ, scale, step);
+        CompletableFuture<TerrainGrid> future = adaptive
+                ? TerrainSampling.adaptive(plugin.getTerrainExecutor(), priority, context, plugin.getAdaptiveCoarseSize())
+                : TerrainSampling.uniform(plugin.getTerrainExecutor(), priority, context);
+
+        return future.whenComplete((grid, error) -> {
+            if (grid == null) {
+                return;
+            }
+            String priorityName = priority.name().toLowerCase(Locale.ROOT);
+            Metrics.timer("structuresfinder_terrain_compute_seconds", "Time to compute one terrain grid, queueing included.",
+                    "mode", mode, "priority", priorityName).record(System.nanoTime() - computeStart);
+            Metrics.histogram("structuresfinder_terrain_lookups", "Lattice points read per map.",
+                    "mode", mode).record(context.lookups().get());
+            Metrics.histogram("structuresfinder_terrain_sampler_calls", "Biome sampler calls per map (tile cache misses).",
+                    "mode", mode).record(context.samplerCalls().get());
+
+            int cells = grid.cells();
+            int[] typeCounts = new int[BiomeType.values().length];
+            for (int cellZ = 0; cellZ < cells; cellZ++) {
+                for (int cellX = 0; cellX < cells; cellX++) {
+                    typeCounts[grid.getClass(cellX, cellZ)]++;
+                }
+            }
+            DebugLogger.debug(() -> "Cells: " + (cells * cells) + ", lookups: " + context.lookups().get()
+                           + ", sampler calls: " + context.samplerCalls().get());
+            DebugLogger.debug(() -> "  - WATER: " + typeCounts[BiomeType.WATER.ordinal()] +
+                           ", FOREST: " + typeCounts[BiomeType.FOREST.ordinal()] +
+                           ", PLAINS: " + typeCounts[BiomeType.PLAINS.ordinal()] +
+                           ", SNOWY: " + typeCounts[BiomeType.SNOWY.ordinal()] +
+                           ", OTHER: " + typeCounts[BiomeType.OTHER.ordinal()] +
+                           ", UNKNOWN: " + typeCounts[BiomeType.UNKNOWN.ordinal()]);
+            DebugLogger.logTiming("--- computeTerrainData END (" + priority + ") ---", methodStart);
+        });
+    }
 
+    /**
+     * Expands a terrain grid to the 128x128 map colour array.
+     * Water biomes use striped pattern, others use solid color.
+     */
+    public static byte[] renderTerrain(TerrainGrid grid) {
         byte[] terrain = new byte[128 * 128];
-        final int SAMPLE_Y = 63;
-
-        // Number of rows to process (128 / sampleRes)
-        int rowCount = 128 / sampleRes;
-        DebugLogger.log("Parallel processing " + rowCount + " rows with " + rowCount + " samples each = " + (rowCount * rowCount) + " total samples");
-
-        // Atomic counters for thread-safe statistics
-        AtomicInteger[] typeCounts = new AtomicInteger[BiomeType.values().length];
-        for (int i = 0; i < typeCounts.length; i++) {
-            typeCounts[i] = new AtomicInteger(0);
+        for (int pixelZ = 0; pixelZ < 128; pixelZ++) {
+            for (int pixelX = 0; pixelX < 128; pixelX++) {
+                terrain[pixelZ * 128 + pixelX] = getColorForBiome(grid.getAtPixel(pixelX, pixelZ), pixelX, pixelZ);
+            }
         }
+        return terrain;
+    }
 
-        long loopStart = System.currentTimeMillis();
-
-        // Process rows in parallel
-        IntStream.range(0, rowCount).parallel().forEach(rowIndex -> {
-            int sampleX = rowIndex * sampleRes;
-
-            for (int sampleZ = 0; sampleZ < 128; sampleZ += sampleRes) {
-                // Convert pixel to world coordinates
-                int worldX = centerX + (sampleX - 64) * scale;
-                int worldZ = centerZ + (sampleZ - 64) * scale;
-
-                // Get biome type at fixed Y level
-                BiomeType biomeType = getBiomeType(world, worldX, SAMPLE_Y, worldZ);
-                typeCounts[biomeType.ordinal()].incrementAndGet();
-
-                // Fill sample block area with appropriate color
-                for (int dx = 0; dx < sampleRes && (sampleX + dx) < 128; dx++) {
-                    for (int dz = 0; dz < sampleRes && (sampleZ + dz) < 128; dz++) {
-                        int pixelX = sampleX + dx;
-                        int pixelZ = sampleZ + dz;
-                        int index = pixelZ * 128 + pixelX;
-                        terrain[index] = getColorForBiome(biomeType, pixelX, pixelZ);
-                    }
-                }
+    /**
+     * Converts a full 128x128 colour array back to a terrain grid by reading
+     * the top-left pixel of each cell. Used to migrate old cache entries.
+     *
+     * @return the grid, or null if the array is not a map colour array
+     */
+    public static TerrainGrid compressTerrain(byte[] colors, int step) {
+        if (colors.length != 128 * 128) {
+            return null;
+        }
+        int cells = TerrainGrid.cellsPerAxis(step);
+        byte[] classes = new byte[cells * cells];
+        for (int cellZ = 0; cellZ < cells; cellZ++) {
+            for (int cellX = 0; cellX < cells; cellX++) {
+                byte color = colors[(cellZ * step) * 128 + cellX * step];
+                BiomeType type = switch (color) {
+                    case WATER_LIGHT, WATER_DARK -> BiomeType.WATER;
+                    case FOREST_COLOR -> BiomeType.FOREST;
+                    case PLAINS_COLOR -> BiomeType.PLAINS;
+                    case SNOWY_COLOR -> BiomeType.SNOWY;
+                    default -> BiomeType.OTHER;
+                };
+                classes[cellZ * cells + cellX] = (byte) type.ordinal();
             }
-        });
+        }
+        return TerrainGrid.pack(step, classes);
+    }
 
-        long loopTime = System.currentTimeMillis() - loopStart;
-        int totalSamples = rowCount * rowCount;
+    /**
+     * Grid step of computed terrain: the minimum cell size in adaptive mode, otherwise
+     * the sample resolution.
+     */
+    public static int getTerrainStep() {
+        StructuresFinder plugin = StructuresFinder.getInstance();
+        return TerrainSampling.ADAPTIVE.equals(plugin.getTerrainSamplingMode())
+                ? plugin.getAdaptiveMinSize() : plugin.getSampleResolution();
+    }
 
-        DebugLogger.logTiming("Parallel loop total", loopStart);
-        DebugLogger.log("Total samples: " + totalSamples);
-        DebugLogger.log("  - WATER: " + typeCounts[BiomeType.WATER.ordinal()].get() +
-                       ", FOREST: " + typeCounts[BiomeType.FOREST.ordinal()].get() +
-                       ", PLAINS: " + typeCounts[BiomeType.PLAINS.ordinal()].get() +
-                       ", SNOWY: " + typeCounts[BiomeType.SNOWY.ordinal()].get() +
-                       ", OTHER: " + typeCounts[BiomeType.OTHER.ordinal()].get());
-        DebugLogger.log("  - Avg time per sample: " + (loopTime / Math.max(1, totalSamples)) + " ms");
-        DebugLogger.logTiming("--- computeTerrainData END ---", methodStart);
+    /**
+     * Fingerprint of every setting that affects computed terrain at a scale:
+     * sampling mode and sizes, scale, biome classification rules and sampler mode. The palette is
+     * applied when a grid is rendered, so it does not invalidate cached grids.
+     * Cached terrain with a different fingerprint is stale.
+     */
+    public static long getTerrainFingerprint(int scale) {
+        StructuresFinder plugin = StructuresFinder.getInstance();
+        long hash = 17;
+        hash = hash * 31 + plugin.getSampleResolution();
+        hash = hash * 31 + plugin.getTerrainSamplingMode().hashCode();
+        hash = hash * 31 + plugin.getAdaptiveCoarseSize();
+        hash = hash * 31 + plugin.getAdaptiveMinSize();
+        hash = hash * 31 + scale;
+        hash = hash * 31 + plugin.getBiomeClassifier().fingerprint();
+        hash = hash * 31 + plugin.getBiomeSamplerMode().hashCode();
+        return hash;
+    }
 
-        return terrain;
+    /**
+     * Fingerprint of the settings that decide a sampled lattice point's class:
+     * biome classification rules and sampler mode. Cached tiles with a different
+     * fingerprint are never read.
+     */
+    public static long getTileFingerprint() {
+        StructuresFinder plugin = StructuresFinder.getInstance();
+        return plugin.getBiomeClassifier().fingerprint() * 31 + plugin.getBiomeSamplerMode().hashCode();
     }
 
     /**
@@ -198,21 +366,24 @@ public class ExplorerMapCreator {
     private static void createMapWithTerrain(Player player, StructureData structure, MapView.Scale scale,
                                              World world, int centerX, int centerZ, byte[] terrainData) {
         long methodStart = System.currentTimeMillis();
-        DebugLogger.log("--- createMapWithTerrain START ---");
+        long timerStart = System.nanoTime();
+        DebugLogger.debug("--- createMapWithTerrain START ---");
 
         // Create the map item
         long itemStart = System.currentTimeMillis();
         ItemStack mapItem = new ItemStack(Material.FILLED_MAP);
         MapMeta meta = (MapMeta) mapItem.getItemMeta();
         if (meta == null) {
-            DebugLogger.log("ERROR: MapMeta is null!");
+            DebugLogger.debug("ERROR: MapMeta is null!");
             return;
         }
         DebugLogger.logTiming("Create ItemStack and get meta", itemStart);
 
-        // Create map view
+        // Create and configure the map view, reusing an expired ID if there is one
         long viewStart = System.currentTimeMillis();
-        MapView view = Bukkit.createMap(world);
+        StructuresFinder plugin = StructuresFinder.getInstance();
+        MapIdRegistry registry = plugin.getMapIdRegistry();
+        MapView view = registry.obtain(world);
         view.setCenterX(centerX);
         view.setCenterZ(centerZ);
         view.setScale(scale);
@@ -222,25 +393,25 @@ public class ExplorerMapCreator {
 
         // Handle renderers
         long rendererStart = System.currentTimeMillis();
-        DebugLogger.log("Default renderer count: " + view.getRenderers().size());
+        DebugLogger.debug(() -> "Default renderer count: " + view.getRenderers().size());
 
-        // Use NMS reflection to directly fill the worldMap.colors array (like vanilla explorer maps)
+        // Write straight into the map's colour array (like vanilla explorer maps), or draw it on the canvas
         if (terrainData != null) {
-            boolean filled = fillMapColorsViaNMS(view, terrainData);
-            DebugLogger.log("NMS colors fill result: " + (filled ? "SUCCESS" : "FAILED"));
+            boolean filled = MapColorWriter.apply(view, terrainData);
+            DebugLogger.debug(() -> "Map colours " + (filled ? "written directly" : "drawn by canvas renderer"));
         }
 
         // Only add structure marker renderer for RED_X
-        view.addRenderer(new StructureMarkerRenderer(structure));
+        attachMarker(view, structure);
+        registry.register(view, structure);
         DebugLogger.logTiming("Configure renderers", rendererStart);
-        DebugLogger.log("Final renderer count: " + view.getRenderers().size());
+        DebugLogger.debug(() -> "Final renderer count: " + view.getRenderers().size());
 
         // Set metadata
         long metaStart = System.currentTimeMillis();
         meta.setMapView(view);
         meta.setColor(Color.fromRGB(139, 69, 19));
 
-        StructuresFinder plugin = StructuresFinder.getInstance();
         String displayName = plugin.getConfigString("map.display-name");
         displayName = replacePlaceholders(displayName, structure, scale);
         meta.setDisplayName(displayName);
@@ -258,138 +429,17 @@ public class ExplorerMapCreator {
         long giveStart = System.currentTimeMillis();
         if (player.getInventory().firstEmpty() != -1) {
             player.getInventory().addItem(mapItem);
-            DebugLogger.log("Map added to inventory");
+            DebugLogger.debug("Map added to inventory");
         } else {
             player.getWorld().dropItem(player.getLocation(), mapItem);
-            DebugLogger.log("Map dropped at player location (inventory full)");
+            DebugLogger.debug("Map dropped at player location (inventory full)");
         }
         DebugLogger.logTiming("Give map to player", giveStart);
 
+        mainThreadTimer.record(System.nanoTime() - timerStart);
         DebugLogger.logTiming("--- createMapWithTerrain END ---", methodStart);
     }
 
-    /**
-     * Fills the map's internal colors array via NMS reflection.
-     * This is how vanilla explorer maps work - they pre-fill the colors array
-     * with the land/water pattern, and exploration updates it with real terrain.
-     */
-    private static boolean fillMapColorsViaNMS(MapView view, byte[] terrainData) {
-        try {
-            // Get the worldMap field from CraftMapView
-            Field worldMapField = view.getClass().getDeclaredField("worldMap");
-            worldMapField.setAccessible(true);
-            Object worldMap = worldMapField.get(view);
-
-            if (worldMap == null) {
-                DebugLogger.log("ERROR: worldMap is null");
-                return false;
-            }
-
-            DebugLogger.log("WorldMap class: " + worldMap.getClass().getName());
-
-            // Try to find the colors field (name may vary by version)
-            Field colorsField = null;
-            String[] possibleNames = {"colors", "g", "f", "e", "h"}; // Common obfuscated names
-
-            for (String name : possibleNames) {
-                try {
-                    colorsField = worldMap.getClass().getDeclaredField(name);
-                    colorsField.setAccessible(true);
-                    Object value = colorsField.get(worldMap);
-                    if (value instanceof byte[] arr && arr.length == 16384) {
-                        DebugLogger.log("Found colors field: '" + name + "' (length: " + arr.length + ")");
-                        break;
-                    }
-                    colorsField = null; // Not the right field
-                } catch (NoSuchFieldException ignored) {
-                    // Try next name
-                }
-            }
-
-            // If not found by name, search all fields for byte[16384]
-            if (colorsField == null) {
-                DebugLogger.log("Searching all fields for byte[16384]...");
-                for (Field field : worldMap.getClass().getDeclaredFields()) {
-                    field.setAccessible(true);
-                    try {
-                        Object value = field.get(worldMap);
-                        if (value instanceof byte[] arr && arr.length == 16384) {
-                            colorsField = field;
-                            DebugLogger.log("Found colors field by type: '" + field.getName() + "'");
-                            break;
-                        }
-                    } catch (Exception ignored) {
-                    }
-                }
-            }
-
-            if (colorsField == null) {
-                DebugLogger.log("ERROR: Could not find colors field in WorldMap");
-                // Log all fields for debugging
-                DebugLogger.log("Available fields in " + worldMap.getClass().getName() + ":");
-                for (Field field : worldMap.getClass().getDeclaredFields()) {
-                    DebugLogger.log("  - " + field.getName() + " : " + field.getType().getSimpleName());
-                }
-                return false;
-            }
-
-            // Get and fill the colors array
-            byte[] colors = (byte[]) colorsField.get(worldMap);
-            System.arraycopy(terrainData, 0, colors, 0, Math.min(terrainData.length, colors.length));
-
-            DebugLogger.log("Successfully filled " + colors.length + " bytes in worldMap.colors");
-            return true;
-
-        } catch (Exception e) {
-            DebugLogger.log("ERROR in fillMapColorsViaNMS: " + e.getClass().getName() + ": " + e.getMessage());
-            e.printStackTrace();
-            return false;
-        }
-    }
-
-    /**
-     * Determines the biome type for coloring purposes.
-     */
-    private static BiomeType getBiomeType(World world, int x, int y, int z) {
-        Biome biome = world.getBiome(x, y, z);
-        String biomeName = biome.getKey().toString().toLowerCase();
-
-        // Check for water biomes
-        if (containsAny(biomeName, "ocean", "river", "swamp", "beach")) {
-            return BiomeType.WATER;
-        }
-
-        // Check for snowy biomes (check before forest because snowy_taiga contains both)
-        if (containsAny(biomeName, "snowy", "frozen", "ice", "cold")) {
-            return BiomeType.SNOWY;
-        }
-
-        // Check for forest biomes
-        if (containsAny(biomeName, "forest", "taiga", "jungle", "grove", "cherry")) {
-            return BiomeType.FOREST;
-        }
-
-        // Check for plains/desert biomes
-        if (containsAny(biomeName, "plains", "savanna", "desert", "badlands", "meadow")) {
-            return BiomeType.PLAINS;
-        }
-
-        // Default for other biomes (mountains, caves, etc.)
-        return BiomeType.OTHER;
-    }
-
-    /**
-     * Helper method to check if a string contains any of the given keywords.
-     */
-    private static boolean containsAny(String str, String... keywords) {
-        for (String keyword : keywords) {
-            if (str.contains(keyword)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     /**
      * Gets the color for a biome type at a specific pixel position.
      * Water biomes use striped pattern, others use solid color.
@@ -404,14 +454,11 @@ public class ExplorerMapCreator {
             case PLAINS -> PLAINS_COLOR;
             case SNOWY -> SNOWY_COLOR;
             case OTHER -> DEFAULT_COLOR;
+            // Left blank so exploring fills it in with real terrain
+            case UNKNOWN -> UNKNOWN_COLOR;
         };
     }
 
-    // Biome type enumeration for multi-color support
-    private enum BiomeType {
-        WATER, FOREST, PLAINS, SNOWY, OTHER
-    }
-
     // Explorer map colors - MapPalette color indexes (not RGB!)
     // See: https://minecraft.wiki/w/Map_item_format#Color_table
     private static final byte WATER_LIGHT = 48;   // Light blue (water color)
@@ -420,6 +467,7 @@ public class ExplorerMapCreator {
     private static final byte PLAINS_COLOR = 4;  // Yellow/sand color
     private static final byte SNOWY_COLOR = 34;    // White (snow color)
     private static final byte DEFAULT_COLOR = 0;  // Light beige/cream
+    private static final byte UNKNOWN_COLOR = 0;  // Unexplored
 
     // Keep old constant for compatibility
     private static final byte LAND_COLOR = DEFAULT_COLOR;
@@ -427,10 +475,19 @@ public class ExplorerMapCreator {
     public static String replacePlaceholders(String text, StructureData structure, MapView.Scale scale) {
         if (text == null) return "";
 
+        return replacePlaceholders(text, structure, scale,
+                getTranslatedWorld(structure.worldName()), getTranslatedType(structure.structureType()));
+    }
+
+    /**
+     * Replaces placeholders with already translated world and type names.
+     */
+    static String replacePlaceholders(String text, StructureData structure, MapView.Scale scale,
+                                      String translatedWorld, String translatedType) {
         return text
-                .replace("%world%", getTranslatedWorld(structure.worldName()))
+                .replace("%world%", translatedWorld)
                 .replace("%world_raw%", structure.worldName())
-                .replace("%type%", getTranslatedType(structure.structureType()))
+                .replace("%type%", translatedType)
                 .replace("%type_raw%", structure.structureType())
                 .replace("%type_formatted%", formatStructureType(structure.structureType()))
                 .replace("%scale%", scale.name().toLowerCase())
@@ -459,7 +516,10 @@ public class ExplorerMapCreator {
         return formatStructureType(rawType);
     }
 
-    private static int getScaleValue(MapView.Scale scale) {
+    /**
+     * Blocks per map pixel at the given scale.
+     */
+    public static int getScaleValue(MapView.Scale scale) {
         return switch (scale) {
             case CLOSEST -> 1;
             case CLOSE -> 2;
@@ -486,56 +546,46 @@ public class ExplorerMapCreator {
     }
 
     /**
-     * Renderer that adds a RED_X marker at the structure location.
+     * Adds the RED_X marker renderer for a structure, replacing any previous one.
+     * The view's center and scale must already be set.
+     */
+    static void attachMarker(MapView view, StructureData structure) {
+        for (MapRenderer renderer : new ArrayList<>(view.getRenderers())) {
+            if (renderer instanceof StructureMarkerRenderer) {
+                view.removeRenderer(renderer);
+            }
+        }
+        int scale = getScaleValue(view.getScale());
+        int pixelOffsetX = (structure.x() - view.getCenterX()) / scale;
+        int pixelOffsetZ = (structure.z() - view.getCenterZ()) / scale;
+        byte markerX = (byte) Math.max(-128, Math.min(127, pixelOffsetX * 2));
+        byte markerZ = (byte) Math.max(-128, Math.min(127, pixelOffsetZ * 2));
+        view.addRenderer(new StructureMarkerRenderer(markerX, markerZ));
+    }
+
+    /**
+     * Adds the precomputed RED_X cursor once. The renderer is not contextual, so every
+     * player shares one canvas and its cursors stay until the view is reset; later
+     * calls only compare the canvas.
      */
     private static class StructureMarkerRenderer extends MapRenderer {
-        private final StructureData structure;
+        private final byte markerX;
+        private final byte markerZ;
+        private org.bukkit.map.MapCanvas marked;
 
-        public StructureMarkerRenderer(StructureData structure) {
+        public StructureMarkerRenderer(byte markerX, byte markerZ) {
             super(false);
-            this.structure = structure;
+            this.markerX = markerX;
+            this.markerZ = markerZ;
         }
 
         @Override
         public void render(MapView view, org.bukkit.map.MapCanvas canvas, Player player) {
-            int centerX = view.getCenterX();
-            int centerZ = view.getCenterZ();
-            int scale = getScaleValue(view.getScale());
-
-            int pixelOffsetX = (structure.x() - centerX) / scale;
-            int pixelOffsetZ = (structure.z() - centerZ) / scale;
-
-            int structureRelX = Math.max(-128, Math.min(127, pixelOffsetX * 2));
-            int structureRelZ = Math.max(-128, Math.min(127, pixelOffsetZ * 2));
-
-            org.bukkit.map.MapCursorCollection cursors = canvas.getCursors();
-            boolean hasMarker = false;
-            for (int i = 0; i < cursors.size(); i++) {
-                if (cursors.getCursor(i).getType() == MapCursor.Type.RED_X) {
-                    hasMarker = true;
-                    break;
-                }
+            if (canvas == marked) {
+                return;
             }
-
-            if (!hasMarker) {
-                cursors.addCursor(new MapCursor(
-                        (byte) structureRelX,
-                        (byte) structureRelZ,
-                        (byte) 0,
-                        MapCursor.Type.RED_X,
-                        true
-                ));
-            }
-        }
-
-        private int getScaleValue(MapView.Scale scale) {
-            return switch (scale) {
-                case CLOSEST -> 1;
-                case CLOSE -> 2;
-                case NORMAL -> 4;
-                case FAR -> 8;
-                case FARTHEST -> 16;
-            };
+            canvas.getCursors().addCursor(new MapCursor(markerX, markerZ, (byte) 0, MapCursor.Type.RED_X, true));
+            marked = canvas;
         }
     }
 }
@@ -0,0 +1,230 @@
+package com.yeahnangua.structuresfinder.map;
+
+import com.yeahnangua.structuresfinder.util.DebugLogger;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapCanvas;
+import org.bukkit.map.MapRenderer;
+import org.bukkit.map.MapView;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes precomputed colours into a map's server-side colour array, like vanilla explorer maps.
+ *
+ * <p>The field holding the colours differs between server builds, so it is resolved once per
+ * runtime class into a cached getter, trying one adapter per mapping scheme in order. When no
+ * adapter matches, the terrain is drawn by a {@link MapRenderer} instead. That still shows the
+ * terrain, but as an overlay that exploring does not replace.
+ */
+public final class MapColorWriter {
+
+    private static final int MAP_BYTES = 128 * 128;
+    private static final Lookup FAILED = new Lookup(null, null);
+
+    /**
+     * Candidate colour field names for one mapping scheme. An empty list accepts any
+     * byte[] field that holds a full map.
+     */
+    private record Adapter(String name, List<String> fieldNames) {
+    }
+
+    private static final List<Adapter> ADAPTERS = List.of(
+            // Paper 1.20.5+ and other Mojang-mapped servers
+            new Adapter("mojang", List.of("colors")),
+            // Spigot-mapped servers; the obfuscated name moves between releases
+            new Adapter("spigot", List.of("g", "f", "e", "h")),
+            new Adapter("field-scan", List.of()));
+
+    private record Lookup(String adapter, MethodHandle getter) {
+    }
+
+    // CraftMapView class -> getter of its WorldMap
+    private static final ClassValue<MethodHandle> worldMapGetters = new ClassValue<>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            Field field = findField(type, "worldMap");
+            return field != null ? getter(field) : null;
+        }
+    };
+
+    // WorldMap class -> colours getter, verified against the first instance seen
+    private static final Map<Class<?>, Lookup> colorGetters = new ConcurrentHashMap<>();
+
+    private static volatile boolean fastPath;
+    private static volatile String activeAdapter = "none";
+
+    private MapColorWriter() {
+    }
+
+    /**
+     * Fills the map with the given colours, adding a canvas renderer if the colour
+     * array cannot be reached.
+     *
+     * @return true if the colours were written directly
+     */
+    public static boolean apply(MapView view, byte[] colors) {
+        if (write(view, colors)) {
+            return true;
+        }
+        view.addRenderer(new CanvasFill(colors));
+        return false;
+    }
+
+    /**
+     * Copies colours straight into the map's colour array.
+     *
+     * @return false if the array could not be found on this server
+     */
+    public static boolean write(MapView view, byte[] colors) {
+        MethodHandle worldMapGetter = worldMapGetters.get(view.getClass());
+        if (worldMapGetter == null) {
+            resolved(view.getClass(), FAILED);
+            return false;
+        }
+
+        try {
+            Object worldMap = worldMapGetter.invoke(view);
+            if (worldMap == null) {
+                DebugLogger.debug("worldMap is null, using canvas fallback");
+                return false;
+            }
+            Lookup lookup = colorGetters.computeIfAbsent(worldMap.getClass(), type -> resolve(type, worldMap));
+            if (lookup.getter() == null) {
+                return false;
+            }
+            byte[] target = (byte[]) lookup.getter().invoke(worldMap);
+            if (target == null || target.length != MAP_BYTES) {
+                return false;
+            }
+            System.arraycopy(colors, 0, target, 0, Math.min(colors.length, target.length));
+            return true;
+        } catch (Throwable e) {
+            DebugLogger.warn("Failed to write map colours: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the last resolved map class supports direct colour writes.
+     */
+    public static boolean isFastPathActive() {
+        return fastPath;
+    }
+
+    /**
+     * Name of the adapter in use: mojang, spigot, field-scan, canvas, or none before the first map.
+     */
+    public static String getActiveAdapter() {
+        return activeAdapter;
+    }
+
+    private static Lookup resolve(Class<?> type, Object worldMap) {
+        for (Adapter adapter : ADAPTERS) {
+            for (Field field : type.getDeclaredFields()) {
+                if (field.getType() != byte[].class || Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                if (!adapter.fieldNames().isEmpty() && !adapter.fieldNames().contains(field.getName())) {
+                    continue;
+                }
+                MethodHandle getter = getter(field);
+                if (getter != null && holdsMap(getter, worldMap)) {
+                    Lookup lookup = new Lookup(adapter.name() + " (" + field.getName() + ")", getter);
+                    resolved(type, lookup);
+                    return lookup;
+                }
+            }
+        }
+
+        DebugLogger.debug(() -> {
+            StringBuilder fields = new StringBuilder("Fields of " + type.getName() + ":");
+            for (Field field : type.getDeclaredFields()) {
+                fields.append(' ').append(field.getName()).append(':').append(field.getType().getSimpleName());
+            }
+            return fields.toString();
+        });
+        resolved(type, FAILED);
+        return FAILED;
+    }
+
+    private static void resolved(Class<?> type, Lookup lookup) {
+        boolean fast = lookup.getter() != null;
+        String adapter = fast ? lookup.adapter() : "canvas";
+        if (fast == fastPath && adapter.equals(activeAdapter)) {
+            return;
+        }
+        fastPath = fast;
+        activeAdapter = adapter;
+        if (fast) {
+            DebugLogger.info("Map colours: writing directly via " + adapter + " adapter on " + type.getName());
+        } else {
+            DebugLogger.warn("Map colours: no adapter matches " + type.getName()
+                    + ", drawing terrain with a map renderer instead");
+        }
+    }
+
+    private static boolean holdsMap(MethodHandle getter, Object worldMap) {
+        try {
+            return getter.invoke(worldMap) instanceof byte[] colors && colors.length == MAP_BYTES;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    private static Field findField(Class<?> type, String name) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            try {
+                return current.getDeclaredField(name);
+            } catch (NoSuchFieldException ignored) {
+                // Try the superclass
+            }
+        }
+        return null;
+    }
+
+    private static MethodHandle getter(Field field) {
+        try {
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Draws the colours onto the shared canvas once. Unknown pixels (0) are left
+     * transparent so explored terrain shows through.
+     */
+    private static class CanvasFill extends MapRenderer {
+        private final byte[] colors;
+        private boolean drawn;
+
+        CanvasFill(byte[] colors) {
+            super(false);
+            this.colors = colors;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation") // the colours are palette indexes, which only the byte API takes as-is
+        public void render(MapView view, MapCanvas canvas, Player player) {
+            if (drawn) {
+                return;
+            }
+            for (int z = 0; z < 128; z++) {
+                for (int x = 0; x < 128; x++) {
+                    byte color = colors[z * 128 + x];
+                    if (color != 0) {
+                        canvas.setPixel(x, z, color);
+                    }
+                }
+            }
+            drawn = true;
+        }
+    }
+}
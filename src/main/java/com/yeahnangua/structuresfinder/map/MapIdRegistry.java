@@ -0,0 +1,425 @@
+package com.yeahnangua.structuresfinder.map;
+
+import com.yeahnangua.structuresfinder.StructuresFinder;
+import com.yeahnangua.structuresfinder.data.StructureData;
+import com.yeahnangua.structuresfinder.util.DebugLogger;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Item;
+import org.bukkit.entity.ItemFrame;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.MapInitializeEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.bukkit.inventory.meta.BundleMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.inventory.meta.MapMeta;
+import org.bukkit.map.MapRenderer;
+import org.bukkit.map.MapView;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks the map IDs this plugin issued so their {@link MapView}s can be reused instead of
+ * allocating a new map_N.dat for every explorer map.
+ *
+ * <p>A periodic scan walks online players (inventory and ender chest) and, a few chunks per
+ * tick, the item frames, dropped items and containers of loaded chunks, looking one level
+ * into shulker boxes and bundles. An ID that no scan or map load has seen for the configured
+ * number of days is assumed gone and handed out again. Offline players and unloaded chunks
+ * cannot be scanned, so the expiry should be longer than players usually stay away.
+ *
+ * <p>Also reattaches structure markers, which are not saved with the map, when a tracked
+ * map is loaded after a restart. All methods except {@link #load} run on the main thread.
+ */
+public class MapIdRegistry implements Listener {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    /**
+     * What an issued map points to, and when it was created and last seen.
+     */
+    private record Entry(StructureData structure, long createdAt, long lastSeen) {
+
+        Entry seen(long now) {
+            return new Entry(structure, createdAt, now);
+        }
+    }
+
+    private final StructuresFinder plugin;
+    private final File file;
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private final ArrayDeque<Integer> free = new ArrayDeque<>();
+    // Maps loaded before maps.yml was read, given their markers once it has been
+    private final List<MapView> initializedEarly = new ArrayList<>();
+    private volatile Map<Integer, Entry> loading;
+    private boolean ready;
+    private BukkitTask scanTimer;
+    private BukkitTask scanTask;
+    private long reused;
+    // Copies of the counts for the metrics gauges, which are read off the main thread
+    private volatile int trackedCount;
+    private volatile int reusableCount;
+    private volatile long reusedCount;
+
+    public MapIdRegistry(StructuresFinder plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), "maps.yml");
+    }
+
+    /**
+     * Reads tracked IDs from maps.yml. Called off the main thread at startup; the IDs
+     * are used once {@link #loadComplete} has run.
+     */
+    public void load() {
+        Map<Integer, Entry> read = new HashMap<>();
+        ConfigurationSection maps = file.exists()
+                ? YamlConfiguration.loadConfiguration(file).getConfigurationSection("maps") : null;
+        for (String key : maps != null ? maps.getKeys(false) : Set.<String>of()) {
+            ConfigurationSection section = maps.getConfigurationSection(key);
+            if (section == null) {
+                continue;
+            }
+            try {
+                StructureData structure = new StructureData(section.getString("world"), section.getInt("x"),
+                        section.getInt("y"), section.getInt("z"), section.getString("schematic", ""),
+                        section.getString("type", ""), false);
+                long created = section.getLong("created");
+                read.put(Integer.parseInt(key), new Entry(structure, created, section.getLong("seen", created)));
+            } catch (IllegalArgumentException e) {
+                DebugLogger.warn("Skipping invalid map id in " + file.getName() + ": " + key);
+            }
+        }
+        loading = read;
+    }
+
+    /**
+     * Adds the IDs read by {@link #load}. Maps issued in the meantime keep their entries,
+     * and tracked maps loaded in the meantime get their markers now.
+     */
+    public void loadComplete() {
+        Map<Integer, Entry> read = loading;
+        loading = null;
+        if (read != null) {
+            read.forEach(entries::putIfAbsent);
+        }
+        ready = true;
+        collectExpired(System.currentTimeMillis());
+        for (MapView view : initializedEarly) {
+            reattach(view);
+        }
+        initializedEarly.clear();
+        publishCounts();
+        DebugLogger.info("Tracking " + entries.size() + " issued maps, " + free.size() + " reusable");
+    }
+
+    /**
+     * Saves tracked IDs to maps.yml on a background thread.
+     */
+    public void saveAsync() {
+        if (!ready) {
+            return;
+        }
+        String data = serialize();
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> write(data));
+    }
+
+    /**
+     * Saves tracked IDs to maps.yml. Called on disable; skipped if maps.yml was never
+     * read, so the IDs in it are not lost.
+     */
+    public void save() {
+        if (!ready) {
+            return;
+        }
+        write(serialize());
+    }
+
+    private String serialize() {
+        YamlConfiguration config = new YamlConfiguration();
+        for (Map.Entry<Integer, Entry> mapping : entries.entrySet()) {
+            String path = "maps." + mapping.getKey();
+            Entry entry = mapping.getValue();
+            StructureData structure = entry.structure();
+            config.set(path + ".world", structure.worldName());
+            config.set(path + ".type", structure.structureType());
+            config.set(path + ".schematic", structure.schematicName());
+            config.set(path + ".x", structure.x());
+            config.set(path + ".y", structure.y());
+            config.set(path + ".z", structure.z());
+            config.set(path + ".created", entry.createdAt());
+            config.set(path + ".seen", entry.lastSeen());
+        }
+        return config.saveToString();
+    }
+
+    private synchronized void write(String data) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            Files.writeString(temp.toPath(), data, StandardCharsets.UTF_8);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            DebugLogger.warn("Failed to save " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts the periodic scan if recycling is enabled.
+     */
+    public void start() {
+        stop();
+        if (plugin.getMapRecycleDays() <= 0) {
+            return;
+        }
+        long ticks = plugin.getMapScanInterval() * 20L;
+        scanTimer = plugin.getServer().getScheduler().runTaskTimer(plugin, this::scan, ticks, ticks);
+    }
+
+    public void stop() {
+        if (scanTimer != null) {
+            scanTimer.cancel();
+            scanTimer = null;
+        }
+        if (scanTask != null) {
+            scanTask.cancel();
+            scanTask = null;
+        }
+    }
+
+    /**
+     * Gets a map view for a new explorer map: a recycled one if available, otherwise a new one.
+     */
+    public MapView obtain(World world) {
+        long now = System.currentTimeMillis();
+        while (!free.isEmpty()) {
+            int id = free.poll();
+            Entry entry = entries.get(id);
+            if (entry == null || !isExpired(entry, now)) {
+                continue;
+            }
+            @SuppressWarnings("deprecation")
+            MapView view = Bukkit.getMap(id);
+            entries.remove(id);
+            if (view == null) {
+                continue;
+            }
+            reset(view, world);
+            reused++;
+            publishCounts();
+            DebugLogger.debug(() -> "Reusing map id " + id);
+            return view;
+        }
+        publishCounts();
+        return Bukkit.createMap(world);
+    }
+
+    /**
+     * Records that a map now points to the given structure.
+     */
+    public void register(MapView view, StructureData structure) {
+        long now = System.currentTimeMillis();
+        entries.put(view.getId(), new Entry(structure, now, now));
+        publishCounts();
+    }
+
+    /**
+     * Removes this plugin's renderers and clears the colours of a recycled view.
+     */
+    private void reset(MapView view, World world) {
+        for (MapRenderer renderer : new ArrayList<>(view.getRenderers())) {
+            if (renderer.getClass().getName().startsWith(MapIdRegistry.class.getPackageName())) {
+                view.removeRenderer(renderer);
+            }
+        }
+        view.setWorld(world);
+        view.setLocked(false);
+        MapColorWriter.write(view, new byte[128 * 128]);
+    }
+
+    private void publishCounts() {
+        trackedCount = entries.size();
+        reusableCount = free.size();
+        reusedCount = reused;
+    }
+
+    /**
+     * Number of tracked map IDs. Safe to call from any thread.
+     */
+    public int getTrackedCount() {
+        return trackedCount;
+    }
+
+    /**
+     * Number of tracked map IDs that can be reused. Safe to call from any thread.
+     */
+    public int getReusableCount() {
+        return reusableCount;
+    }
+
+    /**
+     * Number of map IDs reused since startup. Safe to call from any thread.
+     */
+    public long getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * Reattaches the structure marker when a tracked map is loaded.
+     */
+    @EventHandler
+    public void onMapInitialize(MapInitializeEvent event) {
+        if (ready) {
+            reattach(event.getMap());
+        } else {
+            initializedEarly.add(event.getMap());
+        }
+    }
+
+    private void reattach(MapView view) {
+        Entry entry = entries.get(view.getId());
+        if (entry == null) {
+            return;
+        }
+        entries.put(view.getId(), entry.seen(System.currentTimeMillis()));
+        ExplorerMapCreator.attachMarker(view, entry.structure());
+    }
+
+    /**
+     * Scans online players right away, then loaded chunks a few per tick.
+     */
+    private void scan() {
+        if (!ready || scanTask != null || entries.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Set<Integer> seen = new HashSet<>();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            scanInventory(player.getInventory(), seen, true);
+            scanInventory(player.getEnderChest(), seen, true);
+        }
+
+        ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+        for (World world : Bukkit.getWorlds()) {
+            chunks.addAll(Arrays.asList(world.getLoadedChunks()));
+        }
+        int chunkCount = chunks.size();
+        int perTick = plugin.getMapScanChunksPerTick();
+        scanTask = plugin.getServer().getScheduler().runTaskTimer(plugin, () -> {
+            for (int i = 0; i < perTick && !chunks.isEmpty(); i++) {
+                Chunk chunk = chunks.poll();
+                if (chunk.isLoaded()) {
+                    scanChunk(chunk, seen);
+                }
+            }
+            if (chunks.isEmpty()) {
+                scanTask.cancel();
+                scanTask = null;
+                finishScan(seen, chunkCount, start);
+            }
+        }, 1L, 1L);
+    }
+
+    private void scanChunk(Chunk chunk, Set<Integer> seen) {
+        for (Entity entity : chunk.getEntities()) {
+            if (entity instanceof ItemFrame frame) {
+                scanItem(frame.getItem(), seen, true);
+            } else if (entity instanceof Item item) {
+                scanItem(item.getItemStack(), seen, true);
+            } else if (entity instanceof InventoryHolder holder) {
+                scanInventory(holder.getInventory(), seen, true);
+            }
+        }
+        for (BlockState state : chunk.getTileEntities()) {
+            if (state instanceof InventoryHolder holder) {
+                scanInventory(holder.getInventory(), seen, true);
+            }
+        }
+    }
+
+    private void scanInventory(Inventory inventory, Set<Integer> seen, boolean nested) {
+        if (inventory == null) {
+            return;
+        }
+        for (ItemStack item : inventory.getContents()) {
+            scanItem(item, seen, nested);
+        }
+    }
+
+    /**
+     * Records a tracked map ID; with nested, also looks inside shulker boxes and bundles.
+     */
+    @SuppressWarnings("deprecation")
+    private void scanItem(ItemStack item, Set<Integer> seen, boolean nested) {
+        if (item == null || !item.hasItemMeta()) {
+            return;
+        }
+        ItemMeta meta = item.getItemMeta();
+        if (item.getType() == Material.FILLED_MAP) {
+            if (meta instanceof MapMeta mapMeta && mapMeta.hasMapId() && entries.containsKey(mapMeta.getMapId())) {
+                seen.add(mapMeta.getMapId());
+            }
+        } else if (nested && meta instanceof BlockStateMeta stateMeta && stateMeta.hasBlockState()
+                && stateMeta.getBlockState() instanceof InventoryHolder holder) {
+            scanInventory(holder.getInventory(), seen, false);
+        } else if (nested && meta instanceof BundleMeta bundle && bundle.hasItems()) {
+            for (ItemStack content : bundle.getItems()) {
+                scanItem(content, seen, false);
+            }
+        }
+    }
+
+    private void finishScan(Set<Integer> seen, int chunkCount, long start) {
+        long now = System.currentTimeMillis();
+        for (int id : seen) {
+            Entry entry = entries.get(id);
+            if (entry != null) {
+                entries.put(id, entry.seen(now));
+            }
+        }
+        collectExpired(now);
+        publishCounts();
+        DebugLogger.debug(() -> "Map scan: " + seen.size() + " of " + entries.size() + " issued maps seen in "
+                + chunkCount + " chunks, " + free.size() + " reusable, took " + (now - start) + "ms");
+        saveAsync();
+    }
+
+    private void collectExpired(long now) {
+        free.clear();
+        if (plugin.getMapRecycleDays() <= 0) {
+            return;
+        }
+        for (Map.Entry<Integer, Entry> mapping : entries.entrySet()) {
+            if (isExpired(mapping.getValue(), now)) {
+                free.add(mapping.getKey());
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        int days = plugin.getMapRecycleDays();
+        return days > 0 && now - entry.lastSeen() > days * DAY_MS;
+    }
+}
@@ -0,0 +1,200 @@
+package com.yeahnangua.structuresfinder.map;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Plugin-owned worker threads for terrain computation, kept off the shared common pool.
+ *
+ * <p>Jobs are split into rows. Workers always take a queued HIGH row before any LOW
+ * row, so a player request that arrives while cache refills are running only waits
+ * for the rows already in progress, not for whole maps. Each lane has a limit on
+ * jobs that are queued or running; submissions over the limit are rejected.
+ */
+public final class TerrainExecutor {
+
+    /**
+     * HIGH for player requests, LOW for background cache refills.
+     */
+    public enum Priority {
+        HIGH, LOW
+    }
+
+    /**
+     * Snapshot of executor counters. Queued counts are jobs waiting or in progress.
+     */
+    public record Stats(int threads, int active, int queuedHigh, int queuedLow, long completed, long rejected) {
+    }
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Row> highRows = new ArrayDeque<>();
+    private final ArrayDeque<Row> lowRows = new ArrayDeque<>();
+    private final int[] jobs = new int[Priority.values().length];
+    private final int[] limits;
+    private final Thread[] workers;
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private boolean running = true;
+
+    /**
+     * Starts the worker threads.
+     *
+     * @param threads   number of worker threads
+     * @param highLimit maximum HIGH jobs queued or running
+     * @param lowLimit  maximum LOW jobs queued or running
+     */
+    public TerrainExecutor(int threads, int highLimit, int lowLimit) {
+        this.limits = new int[]{highLimit, lowLimit};
+        this.workers = new Thread[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            Thread worker = new Thread(this::work, "StructuresFinder-Terrain-" + (i + 1));
+            worker.setDaemon(true);
+            workers[i] = worker;
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a job of {@code rows} rows. Rows may run concurrently on different workers;
+     * {@code finish} runs once after the last row and supplies the result.
+     *
+     * @return future of the result, failed with {@link RejectedExecutionException}
+     * if the lane is full or the executor is shut down
+     */
+    public <T> CompletableFuture<T> submit(Priority priority, int rows, IntConsumer row, Supplier<T> finish) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("rows must be positive: " + rows);
+        }
+        Job<T> job = new Job<>(priority, rows, row, finish);
+        int lane = priority.ordinal();
+        synchronized (lock) {
+            if (!running || jobs[lane] >= limits[lane]) {
+                rejected.increment();
+                job.future.completeExceptionally(new RejectedExecutionException(
+                        running ? priority + " terrain queue is full (" + limits[lane] + ")" : "terrain executor is shut down"));
+                return job.future;
+            }
+            jobs[lane]++;
+            ArrayDeque<Row> queue = priority == Priority.HIGH ? highRows : lowRows;
+            for (int index = 0; index < rows; index++) {
+                queue.add(new Row(job, index));
+            }
+            lock.notifyAll();
+        }
+        return job.future;
+    }
+
+    private void work() {
+        while (true) {
+            Row next;
+            synchronized (lock) {
+                while (running && highRows.isEmpty() && lowRows.isEmpty()) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                next = highRows.isEmpty() ? lowRows.poll() : highRows.poll();
+            }
+            active.incrementAndGet();
+            try {
+                next.job().run(next.index());
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    private void finished(Priority priority) {
+        synchronized (lock) {
+            jobs[priority.ordinal()]--;
+        }
+        completed.increment();
+    }
+
+    public Stats getStats() {
+        synchronized (lock) {
+            return new Stats(workers.length, active.get(), jobs[Priority.HIGH.ordinal()], jobs[Priority.LOW.ordinal()],
+                    completed.sum(), rejected.sum());
+        }
+    }
+
+    /**
+     * Fails all queued jobs and waits briefly for rows in progress to finish.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            running = false;
+            RejectedExecutionException cancelled = new RejectedExecutionException("terrain executor is shut down");
+            for (Row row : highRows) {
+                row.job().future.completeExceptionally(cancelled);
+            }
+            for (Row row : lowRows) {
+                row.job().future.completeExceptionally(cancelled);
+            }
+            highRows.clear();
+            lowRows.clear();
+            lock.notifyAll();
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        for (Thread worker : workers) {
+            try {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private record Row(Job<?> job, int index) {
+    }
+
+    private final class Job<T> {
+
+        private final Priority priority;
+        private final AtomicInteger remaining;
+        private final IntConsumer row;
+        private final Supplier<T> finish;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Job(Priority priority, int rows, IntConsumer row, Supplier<T> finish) {
+            this.priority = priority;
+            this.remaining = new AtomicInteger(rows);
+            this.row = row;
+            this.finish = finish;
+        }
+
+        private void run(int index) {
+            // Rows of a failed job are skipped but still counted
+            if (!future.isDone()) {
+                try {
+                    row.accept(index);
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+            if (remaining.decrementAndGet() > 0) {
+                return;
+            }
+            finished(priority);
+            if (!future.isDone()) {
+                try {
+                    future.complete(finish.get());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.yeahnangua.structuresfinder.map;
+
+/**
+ * Compact terrain of an explorer map: one {@link BiomeType} per sampled cell,
+ * packed at 3 bits per cell. A cell covers step x step map pixels.
+ *
+ * <p>At the default sample resolution of 4 this is 32x32 cells in 384 bytes,
+ * instead of the 16 384-byte colour array it expands to.
+ */
+public final class TerrainGrid {
+
+    public static final int MAP_SIZE = 128;
+    private static final int BITS = 3;
+
+    private final int step;
+    private final int cells;
+    private final byte[] packed;
+
+    private TerrainGrid(int step, byte[] packed) {
+        this.step = step;
+        this.cells = cellsPerAxis(step);
+        this.packed = packed;
+    }
+
+    /**
+     * Number of cells along each map axis for a sample step.
+     */
+    public static int cellsPerAxis(int step) {
+        return (MAP_SIZE + step - 1) / step;
+    }
+
+    /**
+     * Number of packed bytes a grid with this step takes.
+     */
+    public static int packedLength(int step) {
+        int cells = cellsPerAxis(step);
+        return (cells * cells * BITS + 7) / 8;
+    }
+
+    /**
+     * Packs biome type ordinals laid out as {@code classes[cellZ * cells + cellX]}.
+     */
+    public static TerrainGrid pack(int step, byte[] classes) {
+        int cells = cellsPerAxis(step);
+        byte[] packed = new byte[packedLength(step)];
+        for (int i = 0; i < cells * cells; i++) {
+            int bit = i * BITS;
+            int value = classes[i] & 0x7;
+            packed[bit >> 3] |= (byte) (value << (bit & 7));
+            if ((bit & 7) > 8 - BITS) {
+                packed[(bit >> 3) + 1] |= (byte) (value >> (8 - (bit & 7)));
+            }
+        }
+        return new TerrainGrid(step, packed);
+    }
+
+    /**
+     * Wraps already packed bytes, e.g. read back from the disk cache.
+     *
+     * @return the grid, or null if the length does not match the step
+     */
+    public static TerrainGrid fromPacked(int step, byte[] packed) {
+        if (step < 1 || step > MAP_SIZE || packed.length != packedLength(step)) {
+            return null;
+        }
+        return new TerrainGrid(step, packed);
+    }
+
+    /**
+     * Gets the biome type ordinal of a cell.
+     */
+    public int getClass(int cellX, int cellZ) {
+        int bit = (cellZ * cells + cellX) * BITS;
+        int value = (packed[bit >> 3] & 0xFF) >> (bit & 7);
+        if ((bit & 7) > 8 - BITS) {
+            value |= (packed[(bit >> 3) + 1] & 0xFF) << (8 - (bit & 7));
+        }
+        return value & 0x7;
+    }
+
+    /**
+     * Gets the biome type at a map pixel.
+     */
+    public BiomeType getAtPixel(int pixelX, int pixelZ) {
+        return BiomeType.byOrdinal(getClass(pixelX / step, pixelZ / step));
+    }
+
+    public int step() {
+        return step;
+    }
+
+    public int cells() {
+        return cells;
+    }
+
+    /**
+     * The packed cell classes. Do not modify.
+     */
+    public byte[] packed() {
+        return packed;
+    }
+}
@@ -0,0 +1,228 @@
+package com.yeahnangua.structuresfinder.map;
+
+import org.bukkit.block.Biome;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Samples the terrain grid of one map as row tasks on the {@link TerrainExecutor}.
+ *
+ * <p>Uniform mode reads one lattice point per grid cell. Adaptive mode starts with
+ * coarse cells and reads their four corners; a cell whose corners agree is filled with
+ * that class, otherwise it is split into quarters until the minimum size is reached,
+ * where a cell takes the class of its top-left corner like in uniform mode. Small
+ * features entirely inside a coarse cell whose corners agree are not seen.
+ */
+public final class TerrainSampling {
+
+    public static final String UNIFORM = "uniform";
+    public static final String ADAPTIVE = "adaptive";
+
+    private static final int MAP_SIZE = TerrainGrid.MAP_SIZE;
+    private static final int SAMPLE_Y = 63;
+    private static final byte NOT_READ = -1;
+
+    /**
+     * Lookup counters of one sampling mode. Lookups are distinct lattice points a map read,
+     * sampler calls are the lookups the tile cache could not answer.
+     */
+    public record SamplingStats(String mode, long maps, long lookups, long samplerCalls) {
+
+        public long lookupsPerMap() {
+            return maps == 0 ? 0 : lookups / maps;
+        }
+
+        public long samplerCallsPerMap() {
+            return maps == 0 ? 0 : samplerCalls / maps;
+        }
+    }
+
+    private static final String[] MODES = {UNIFORM, ADAPTIVE};
+    private static final LongAdder[] maps = {new LongAdder(), new LongAdder()};
+    private static final LongAdder[] lookups = {new LongAdder(), new LongAdder()};
+    private static final LongAdder[] samplerCalls = {new LongAdder(), new LongAdder()};
+
+    private TerrainSampling() {
+    }
+
+    /**
+     * Everything a row task needs to turn map pixels into classified lattice points.
+     * Samples snap to a world lattice with spacing step x scale blocks, so overlapping
+     * maps share tiles in the {@link BiomeTileCache}.
+     */
+    record Context(BiomeClassifier classifier, BiomeSampler sampler, BiomeTileCache tileCache, long tileFingerprint,
+                   String worldName, int centerX, int centerZ, int scale, int step,
+                   AtomicInteger lookups, AtomicInteger samplerCalls) {
+
+        Context(BiomeClassifier classifier, BiomeSampler sampler, BiomeTileCache tileCache, long tileFingerprint,
+                String worldName, int centerX, int centerZ, int scale, int step) {
+            this(classifier, sampler, tileCache, tileFingerprint, worldName, centerX, centerZ, scale, step,
+                    new AtomicInteger(), new AtomicInteger());
+        }
+
+        int spacing() {
+            return step * scale;
+        }
+    }
+
+    /**
+     * Reads lattice points through the tile cache, then through the tiles of finer scales,
+     * sampling only when neither has the point.
+     * Remembers the last tile; each row task uses its own reader.
+     */
+    private static final class LatticeReader {
+
+        private final Context context;
+        private byte[] tile;
+        private int tileX;
+        private int tileZ;
+
+        private LatticeReader(Context context) {
+            this.context = context;
+        }
+
+        /**
+         * Reads the lattice point at a map pixel (a multiple of the step, may be 128).
+         */
+        BiomeType read(int pixelX, int pixelZ) {
+            int spacing = context.spacing();
+            int latticeX = Math.floorDiv(context.centerX() + (pixelX - MAP_SIZE / 2) * context.scale(), spacing);
+            int latticeZ = Math.floorDiv(context.centerZ() + (pixelZ - MAP_SIZE / 2) * context.scale(), spacing);
+            int x = BiomeTileCache.tileOf(latticeX);
+            int z = BiomeTileCache.tileOf(latticeZ);
+            if (tile == null || x != tileX || z != tileZ) {
+                tile = context.tileCache().tile(context.tileFingerprint(), context.worldName(), spacing, latticeX, latticeZ);
+                tileX = x;
+                tileZ = z;
+            }
+
+            context.lookups().incrementAndGet();
+            BiomeType type = context.tileCache().get(tile, latticeX, latticeZ);
+            if (type == null) {
+                type = readFiner(latticeX, latticeZ);
+            }
+            if (type == null) {
+                context.samplerCalls().incrementAndGet();
+                // Positions the sampler cannot read without loading a chunk are UNKNOWN
+                Biome biome = context.sampler().sample(latticeX * spacing, SAMPLE_Y, latticeZ * spacing);
+                type = biome == null ? BiomeType.UNKNOWN : context.classifier().classify(biome);
+                context.tileCache().put(tile, latticeX, latticeZ, type);
+            }
+            return type;
+        }
+
+        /**
+         * Takes a lattice point from the same point on a finer scale's lattice, finest
+         * first, and copies it into this scale's tile.
+         *
+         * @return the class, or null if no finer scale has sampled the point
+         */
+        private BiomeType readFiner(int latticeX, int latticeZ) {
+            for (int finer = 1; finer < context.scale(); finer *= 2) {
+                int factor = context.scale() / finer;
+                BiomeType type = context.tileCache().peek(context.tileFingerprint(), context.worldName(),
+                        context.step() * finer, latticeX * factor, latticeZ * factor);
+                if (type != null) {
+                    context.tileCache().put(tile, latticeX, latticeZ, type);
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * One lattice point per cell, one row task per cell row.
+     */
+    static CompletableFuture<TerrainGrid> uniform(TerrainExecutor executor, TerrainExecutor.Priority priority, Context context) {
+        int step = context.step();
+        int cells = TerrainGrid.cellsPerAxis(step);
+        byte[] classes = new byte[cells * cells];
+
+        return executor.submit(priority, cells, cellZ -> {
+            LatticeReader reader = new LatticeReader(context);
+            for (int cellX = 0; cellX < cells; cellX++) {
+                classes[cellZ * cells + cellX] = (byte) reader.read(cellX * step, cellZ * step).ordinal();
+            }
+        }, () -> finish(0, context, classes));
+    }
+
+    /**
+     * Quadtree subdivision from coarse cells down to {@code context.step()}, one row task
+     * per row of coarse cells. Both sizes must be powers of two with coarse >= step.
+     */
+    static CompletableFuture<TerrainGrid> adaptive(TerrainExecutor executor, TerrainExecutor.Priority priority,
+                                                   Context context, int coarse) {
+        int step = context.step();
+        int cells = TerrainGrid.cellsPerAxis(step);
+        byte[] classes = new byte[cells * cells];
+        // Corners shared by neighbouring cells are read once per map
+        int corners = cells + 1;
+        byte[] cornerClasses = new byte[corners * corners];
+        Arrays.fill(cornerClasses, NOT_READ);
+
+        return executor.submit(priority, MAP_SIZE / coarse, row -> {
+            LatticeReader reader = new LatticeReader(context);
+            for (int pixelX = 0; pixelX < MAP_SIZE; pixelX += coarse) {
+                subdivide(reader, cornerClasses, corners, classes, cells, step, pixelX, row * coarse, coarse);
+            }
+        }, () -> finish(1, context, classes));
+    }
+
+    private static void subdivide(LatticeReader reader, byte[] cornerClasses, int corners, byte[] classes, int cells,
+                                  int step, int pixelX, int pixelZ, int size) {
+        int topLeft = corner(reader, cornerClasses, corners, step, pixelX, pixelZ);
+        if (size > step) {
+            int topRight = corner(reader, cornerClasses, corners, step, pixelX + size, pixelZ);
+            int bottomLeft = corner(reader, cornerClasses, corners, step, pixelX, pixelZ + size);
+            int bottomRight = corner(reader, cornerClasses, corners, step, pixelX + size, pixelZ + size);
+            if (topLeft != topRight || topLeft != bottomLeft || topLeft != bottomRight) {
+                int half = size / 2;
+                subdivide(reader, cornerClasses, corners, classes, cells, step, pixelX, pixelZ, half);
+                subdivide(reader, cornerClasses, corners, classes, cells, step, pixelX + half, pixelZ, half);
+                subdivide(reader, cornerClasses, corners, classes, cells, step, pixelX, pixelZ + half, half);
+                subdivide(reader, cornerClasses, corners, classes, cells, step, pixelX + half, pixelZ + half, half);
+                return;
+            }
+        }
+
+        int fromX = pixelX / step;
+        int fromZ = pixelZ / step;
+        int span = size / step;
+        for (int cellZ = fromZ; cellZ < fromZ + span; cellZ++) {
+            Arrays.fill(classes, cellZ * cells + fromX, cellZ * cells + fromX + span, (byte) topLeft);
+        }
+    }
+
+    private static int corner(LatticeReader reader, byte[] cornerClasses, int corners, int step, int pixelX, int pixelZ) {
+        int index = (pixelZ / step) * corners + pixelX / step;
+        byte value = cornerClasses[index];
+        if (value == NOT_READ) {
+            value = (byte) reader.read(pixelX, pixelZ).ordinal();
+            cornerClasses[index] = value;
+        }
+        return value;
+    }
+
+    private static TerrainGrid finish(int mode, Context context, byte[] classes) {
+        maps[mode].increment();
+        lookups[mode].add(context.lookups().get());
+        samplerCalls[mode].add(context.samplerCalls().get());
+        return TerrainGrid.pack(context.step(), classes);
+    }
+
+    /**
+     * Gets lookup counters for both modes since the server started.
+     */
+    public static List<SamplingStats> getStats() {
+        return List.of(stats(0), stats(1));
+    }
+
+    private static SamplingStats stats(int mode) {
+        return new SamplingStats(MODES[mode], maps[mode].sum(), lookups[mode].sum(), samplerCalls[mode].sum());
+    }
+}
@@ -0,0 +1,208 @@
+package com.yeahnangua.structuresfinder.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide metrics registry: counters, histograms and gauges, each identified by a
+ * Prometheus-style name plus labels. Lookups are a map access, so hot paths keep the
+ * returned counter or histogram rather than looking it up per event.
+ */
+public final class Metrics {
+
+    /**
+     * What histogram values mean. Timers record nanoseconds and are exported in seconds.
+     */
+    public enum Unit {
+        NANOSECONDS, COUNT
+    }
+
+    private enum Type {
+        COUNTER, SUMMARY, GAUGE
+    }
+
+    private record Family(String name, String help, Type type, Unit unit) {
+    }
+
+    public record CounterView(String name, String help, String labels, long value) {
+    }
+
+    public record HistogramView(String name, String help, String labels, Unit unit, Histogram.Snapshot snapshot) {
+    }
+
+    public record GaugeView(String name, String help, String labels, double value) {
+    }
+
+    private static final Map<String, Family> families = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, LongAdder>> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, Histogram>> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, Supplier<Map<String, Number>>> gauges = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Gets or creates a counter.
+     *
+     * @param labels alternating label names and values
+     */
+    public static LongAdder counter(String name, String help, String... labels) {
+        register(name, help, Type.COUNTER, Unit.COUNT);
+        return counters.computeIfAbsent(name, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(labels(labels), k -> new LongAdder());
+    }
+
+    /**
+     * Gets or creates a histogram of durations in nanoseconds.
+     */
+    public static Histogram timer(String name, String help, String... labels) {
+        return histogram(name, help, Unit.NANOSECONDS, labels);
+    }
+
+    /**
+     * Gets or creates a histogram of plain values.
+     */
+    public static Histogram histogram(String name, String help, String... labels) {
+        return histogram(name, help, Unit.COUNT, labels);
+    }
+
+    private static Histogram histogram(String name, String help, Unit unit, String... labels) {
+        register(name, help, Type.SUMMARY, unit);
+        return histograms.computeIfAbsent(name, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(labels(labels), k -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge family whose samples (label string to value) are read at export time.
+     * Use {@link #labels} to build the keys. Registering the same name again replaces it.
+     */
+    public static void gauge(String name, String help, Supplier<Map<String, Number>> samples) {
+        register(name, help, Type.GAUGE, Unit.COUNT);
+        gauges.put(name, samples);
+    }
+
+    private static void register(String name, String help, Type type, Unit unit) {
+        families.computeIfAbsent(name, k -> new Family(name, help, type, unit));
+    }
+
+    /**
+     * Formats alternating names and values as {@code name="value",...}.
+     */
+    public static String labels(String... pairs) {
+        if (pairs.length == 0) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i + 1 < pairs.length; i += 2) {
+            if (!builder.isEmpty()) {
+                builder.append(',');
+            }
+            builder.append(pairs[i]).append("=\"").append(escape(pairs[i + 1])).append('"');
+        }
+        return builder.toString();
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    public static List<CounterView> counters() {
+        List<CounterView> views = new ArrayList<>();
+        for (Map.Entry<String, Map<String, LongAdder>> family : new TreeMap<>(counters).entrySet()) {
+            String help = families.get(family.getKey()).help();
+            for (Map.Entry<String, LongAdder> entry : new TreeMap<>(family.getValue()).entrySet()) {
+                views.add(new CounterView(family.getKey(), help, entry.getKey(), entry.getValue().sum()));
+            }
+        }
+        return views;
+    }
+
+    public static List<HistogramView> histograms() {
+        List<HistogramView> views = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Histogram>> family : new TreeMap<>(histograms).entrySet()) {
+            Family info = families.get(family.getKey());
+            for (Map.Entry<String, Histogram> entry : new TreeMap<>(family.getValue()).entrySet()) {
+                views.add(new HistogramView(family.getKey(), info.help(), entry.getKey(), info.unit(),
+                        entry.getValue().snapshot()));
+            }
+        }
+        return views;
+    }
+
+    public static List<GaugeView> gauges() {
+        List<GaugeView> views = new ArrayList<>();
+        for (Map.Entry<String, Supplier<Map<String, Number>>> family : new TreeMap<>(gauges).entrySet()) {
+            String help = families.get(family.getKey()).help();
+            for (Map.Entry<String, Number> entry : new TreeMap<>(family.getValue().get()).entrySet()) {
+                views.add(new GaugeView(family.getKey(), help, entry.getKey(), entry.getValue().doubleValue()));
+            }
+        }
+        return views;
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format.
+     * Histograms are exported as summaries with 0.5, 0.95 and 0.99 quantiles.
+     */
+    public static String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        String current = null;
+        for (CounterView view : counters()) {
+            if (!view.name().equals(current)) {
+                header(out, view.name(), view.help(), "counter");
+                current = view.name();
+            }
+            sample(out, view.name(), view.labels(), null, view.value());
+        }
+        for (HistogramView view : histograms()) {
+            if (!view.name().equals(current)) {
+                header(out, view.name(), view.help(), "summary");
+                current = view.name();
+            }
+            double divisor = view.unit() == Unit.NANOSECONDS ? 1e9 : 1;
+            Histogram.Snapshot snapshot = view.snapshot();
+            sample(out, view.name(), view.labels(), "quantile=\"0.5\"", snapshot.p50() / divisor);
+            sample(out, view.name(), view.labels(), "quantile=\"0.95\"", snapshot.p95() / divisor);
+            sample(out, view.name(), view.labels(), "quantile=\"0.99\"", snapshot.p99() / divisor);
+            sample(out, view.name() + "_sum", view.labels(), null, snapshot.sum() / divisor);
+            sample(out, view.name() + "_count", view.labels(), null, snapshot.count());
+        }
+        for (GaugeView view : gauges()) {
+            if (!view.name().equals(current)) {
+                header(out, view.name(), view.help(), "gauge");
+                current = view.name();
+            }
+            sample(out, view.name(), view.labels(), null, view.value());
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extra, double value) {
+        out.append(name);
+        if (!labels.isEmpty() || extra != null) {
+            out.append('{').append(labels);
+            if (extra != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extra);
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.6g", value));
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,99 @@
+package com.yeahnangua.structuresfinder.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import com.yeahnangua.structuresfinder.StructuresFinder;
+import com.yeahnangua.structuresfinder.util.DebugLogger;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Publishes {@link Metrics} in the Prometheus text format: periodically to
+ * metrics.prom in the plugin folder, and optionally over HTTP at /metrics.
+ */
+public class PrometheusExporter {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StructuresFinder plugin;
+    private final File file;
+    private BukkitTask fileTask;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+
+    public PrometheusExporter(StructuresFinder plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), "metrics.prom");
+    }
+
+    /**
+     * Starts the file writer and HTTP endpoint as configured.
+     */
+    public void start() {
+        long interval = plugin.getMetricsFileInterval();
+        if (interval > 0) {
+            long ticks = interval * 20L;
+            fileTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::writeFile, ticks, ticks);
+        }
+
+        if (plugin.isMetricsHttpEnabled()) {
+            String host = plugin.getMetricsHttpHost();
+            int port = plugin.getMetricsHttpPort();
+            try {
+                server = HttpServer.create(new InetSocketAddress(host, port), 0);
+                server.createContext("/metrics", exchange -> {
+                    byte[] body = Metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                serverExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "StructuresFinder-Metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                server.setExecutor(serverExecutor);
+                server.start();
+                DebugLogger.info("Metrics endpoint listening on http://" + host + ":" + port + "/metrics");
+            } catch (IOException e) {
+                server = null;
+                DebugLogger.warn("Could not start metrics endpoint on " + host + ":" + port, e);
+            }
+        }
+    }
+
+    private void writeFile() {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            Files.writeString(temp.toPath(), Metrics.toPrometheus(), StandardCharsets.UTF_8);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            DebugLogger.warn("Failed to write " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    public void stop() {
+        if (fileTask != null) {
+            fileTask.cancel();
+            fileTask = null;
+        }
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (serverExecutor != null) {
+            serverExecutor.shutdownNow();
+            serverExecutor = null;
+        }
+    }
+}
@@ -4,67 +4,405 @@ import com.yeahnangua.structuresfinder.StructuresFinder;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 /**
- * Debug logger that writes detailed timing information to log.log file.
+ * Plugin logging facade. Lines go to log.log through a lock-free ring buffer that one
+ * background thread drains in batches, rotating the file by size. INFO and above are
+ * also echoed to the console at or above the configured console level; DEBUG never is.
+ *
+ * <p>Levels are read from the {@code logging} section of config.yml. Use the
+ * {@link Supplier} overloads when building the message costs anything, so nothing is
+ * formatted while the level is disabled. Before {@link #start} everything is dropped.
  */
 public class DebugLogger {
 
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
-    private static File logFile;
+    private static final long IDLE_PARK_NANOS = 50_000_000L;
+
+    private static volatile Level fileLevel = Level.OFF;
+    private static volatile Level consoleLevel = Level.OFF;
+    private static volatile Logger console;
+    private static volatile LogWriter writerThread;
+    private static final LongAdder dropped = new LongAdder();
+
+    private DebugLogger() {
+    }
 
     /**
-     * Initializes the log file.
+     * Starts the background writer and applies the config. Called on enable.
      */
-    private static void ensureLogFile() {
-        if (logFile == null) {
-            logFile = new File(StructuresFinder.getInstance().getDataFolder(), "log.log");
-            if (!logFile.getParentFile().exists()) {
-                logFile.getParentFile().mkdirs();
-            }
+    public static synchronized void start(StructuresFinder plugin) {
+        if (writerThread == null) {
+            writerThread = new LogWriter(new File(plugin.getDataFolder(), "log.log"), plugin.getLogBufferSize());
+            writerThread.start();
         }
+        console = plugin.getLogger();
+        configure(plugin);
     }
 
     /**
-     * Logs a message with timestamp to the log file.
+     * Re-reads levels and rotation settings from the config.
      */
-    public static void log(String message) {
-        ensureLogFile();
-        String timestamp = LocalDateTime.now().format(formatter);
-        String logLine = "[" + timestamp + "] " + message;
+    public static void configure(StructuresFinder plugin) {
+        LogWriter writer = writerThread;
+        if (writer != null) {
+            writer.maxBytes = plugin.getLogMaxFileSize();
+            writer.maxFiles = plugin.getLogMaxFiles();
+        }
+        fileLevel = plugin.getLogLevel("logging.level", Level.INFO);
+        consoleLevel = plugin.getLogLevel("logging.console-level", Level.INFO);
+    }
+
+    /**
+     * Writes out everything still buffered and stops the writer. Called on disable.
+     */
+    public static synchronized void shutdown() {
+        LogWriter writer = writerThread;
+        if (writer == null) {
+            return;
+        }
+        fileLevel = Level.OFF;
+        consoleLevel = Level.OFF;
+        writerThread = null;
+        writer.running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Parses a level name, falling back to the default for unknown names.
+     */
+    public static Level parseLevel(String name, Level fallback) {
+        if (name == null) {
+            return fallback;
+        }
+        try {
+            return Level.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(fileLevel) >= 0 || (level != Level.DEBUG && level.compareTo(consoleLevel) >= 0);
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static void debug(String message) {
+        write(Level.DEBUG, message, null);
+    }
+
+    public static void debug(Supplier<String> message) {
+        if (isEnabled(Level.DEBUG)) {
+            write(Level.DEBUG, message.get(), null);
+        }
+    }
 
-        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(logFile, true)))) {
-            writer.println(logLine);
-        } catch (IOException e) {
-            StructuresFinder.getInstance().getLogger().warning("Failed to write to log file: " + e.getMessage());
+    public static void info(String message) {
+        write(Level.INFO, message, null);
+    }
+
+    public static void info(Supplier<String> message) {
+        if (isEnabled(Level.INFO)) {
+            write(Level.INFO, message.get(), null);
         }
+    }
+
+    public static void warn(String message) {
+        write(Level.WARN, message, null);
+    }
+
+    public static void warn(String message, Throwable error) {
+        write(Level.WARN, message, error);
+    }
+
+    public static void error(String message, Throwable error) {
+        write(Level.ERROR, message, error);
+    }
 
-        // Also log to console for immediate visibility
-        StructuresFinder.getInstance().getLogger().info(message);
+    /**
+     * Logs a debug message. Kept for the existing timing traces.
+     */
+    public static void log(String message) {
+        debug(message);
     }
 
     /**
-     * Logs a timing message.
+     * Logs a timing message at debug level.
      */
     public static void logTiming(String operation, long startTimeMs) {
-        long elapsed = System.currentTimeMillis() - startTimeMs;
-        log(String.format("[TIMING] %s took %d ms", operation, elapsed));
+        if (isEnabled(Level.DEBUG)) {
+            long elapsed = System.currentTimeMillis() - startTimeMs;
+            write(Level.DEBUG, "[TIMING] " + operation + " took " + elapsed + " ms", null);
+        }
     }
 
     /**
      * Clears the log file.
      */
     public static void clearLog() {
-        ensureLogFile();
-        try (PrintWriter writer = new PrintWriter(logFile)) {
-            writer.print("");
-        } catch (IOException e) {
-            StructuresFinder.getInstance().getLogger().warning("Failed to clear log file: " + e.getMessage());
+        LogWriter writer = writerThread;
+        if (writer != null) {
+            writer.clearRequested = true;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Number of lines dropped because the buffer was full.
+     */
+    public static long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private static void write(Level level, String message, Throwable error) {
+        if (level.compareTo(fileLevel) >= 0) {
+            LogWriter writer = writerThread;
+            if (writer != null) {
+                String line = "[" + LocalDateTime.now().format(formatter) + "] [" + level + "] " + message;
+                if (error != null) {
+                    line += System.lineSeparator() + stackTrace(error);
+                }
+                writer.offer(line);
+            }
+        }
+
+        Logger logger = console;
+        if (level != Level.DEBUG && level.compareTo(consoleLevel) >= 0 && logger != null) {
+            java.util.logging.Level julLevel = switch (level) {
+                case WARN -> java.util.logging.Level.WARNING;
+                case ERROR -> java.util.logging.Level.SEVERE;
+                default -> java.util.logging.Level.INFO;
+            };
+            logger.log(julLevel, message, error);
+        }
+    }
+
+    private static String stackTrace(Throwable error) {
+        StringWriter out = new StringWriter();
+        error.printStackTrace(new PrintWriter(out));
+        return out.toString().stripTrailing();
+    }
+
+    /**
+     * Background thread that owns log.log. Producers claim ring slots with a CAS on the
+     * tail; the single consumer reads from the head. A full ring drops the line rather
+     * than blocking the caller.
+     */
+    private static final class LogWriter extends Thread {
+
+        private final File file;
+        private final AtomicReferenceArray<String> ring;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+        private long reportedDrops;
+
+        private volatile boolean running = true;
+        private volatile boolean clearRequested;
+        private volatile long maxBytes;
+        private volatile int maxFiles;
+
+        private BufferedWriter out;
+        private long written;
+        private boolean failureReported;
+
+        private LogWriter(File file, int capacity) {
+            super("StructuresFinder-Log");
+            setDaemon(true);
+            this.file = file;
+            int size = Integer.highestOneBit(Math.max(64, capacity - 1)) << 1;
+            this.ring = new AtomicReferenceArray<>(size);
+            this.mask = size - 1;
+        }
+
+        void offer(String line) {
+            while (true) {
+                long slot = tail.get();
+                if (slot - head >= ring.length()) {
+                    dropped.increment();
+                    return;
+                }
+                if (tail.compareAndSet(slot, slot + 1)) {
+                    ring.set((int) (slot & mask), line);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                boolean stopping = !running;
+                int drained = drain();
+                if (clearRequested) {
+                    clearRequested = false;
+                    clear();
+                }
+                if (stopping) {
+                    close();
+                    return;
+                }
+                if (drained == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        }
+
+        private int drain() {
+            int drained = 0;
+            long position = head;
+            while (position < tail.get()) {
+                int index = (int) (position & mask);
+                String line = ring.get(index);
+                if (line == null) {
+                    // Slot claimed but not yet written
+                    Thread.onSpinWait();
+                    continue;
+                }
+                ring.set(index, null);
+                position++;
+                head = position;
+                append(line);
+                drained++;
+            }
+            long drops = dropped.sum();
+            if (drops > reportedDrops) {
+                append("[" + LocalDateTime.now().format(formatter) + "] [WARN] " + (drops - reportedDrops)
+                        + " log lines dropped, buffer full");
+                reportedDrops = drops;
+                drained++;
+            }
+            if (drained > 0 && out != null) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    reportFailure(e);
+                }
+            }
+            return drained;
+        }
+
+        private void append(String line) {
+            try {
+                if (out == null) {
+                    open();
+                }
+                out.write(line);
+                out.newLine();
+                // Compared against the file size in bytes, so count encoded bytes, not chars
+                written += utf8Length(line) + System.lineSeparator().length();
+                if (maxBytes > 0 && written >= maxBytes) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                reportFailure(e);
+            }
+        }
+
+        private static int utf8Length(String line) {
+            int bytes = 0;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c < 0x80) {
+                    bytes++;
+                } else if (c < 0x800) {
+                    bytes += 2;
+                } else if (Character.isSurrogate(c)) {
+                    bytes += 2; // a pair encodes to 4 bytes
+                } else {
+                    bytes += 3;
+                }
+            }
+            return bytes;
+        }
+
+        private void open() throws IOException {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            written = file.length();
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Renames log.log to log.1.log, shifting older files up and deleting the oldest.
+         */
+        private void rotate() throws IOException {
+            out.close();
+            out = null;
+            int keep = Math.max(0, maxFiles);
+            File parent = file.getParentFile();
+            if (keep == 0) {
+                file.delete();
+            } else {
+                new File(parent, "log." + keep + ".log").delete();
+                for (int i = keep - 1; i >= 1; i--) {
+                    new File(parent, "log." + i + ".log").renameTo(new File(parent, "log." + (i + 1) + ".log"));
+                }
+                file.renameTo(new File(parent, "log.1.log"));
+            }
+            written = 0;
+        }
+
+        private void clear() {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+                new FileOutputStream(file).close();
+                written = 0;
+            } catch (IOException e) {
+                reportFailure(e);
+            }
+        }
+
+        private void close() {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+            } catch (IOException e) {
+                reportFailure(e);
+            }
+        }
+
+        private void reportFailure(IOException e) {
+            Logger logger = console;
+            if (!failureReported && logger != null) {
+                logger.warning("Failed to write to log file: " + e.getMessage());
+                failureReported = true;
+            }
+            out = null;
         }
     }
 }
@@ -0,0 +1,114 @@
+package com.yeahnangua.structuresfinder.util;
+
+import com.yeahnangua.structuresfinder.StructuresFinder;
+import com.yeahnangua.structuresfinder.metrics.Histogram;
+import com.yeahnangua.structuresfinder.metrics.Metrics;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs main-thread work within a per-tick time budget. Work can be submitted from any
+ * thread; each tick runs queued items in order until the budget is spent and leaves the
+ * rest for later ticks. At least one item runs per tick, so a single item larger than the
+ * budget still makes progress.
+ */
+public class MainThreadWorkQueue {
+
+    private record Work(Runnable action, long queuedAt) {
+    }
+
+    private static final Histogram waitTimer = Metrics.timer("structuresfinder_main_queue_wait_seconds",
+            "Time main-thread work waited in the queue.");
+    private static final Histogram tickTimer = Metrics.timer("structuresfinder_main_queue_tick_seconds",
+            "Main-thread time spent on queued work per tick with work.");
+
+    private final StructuresFinder plugin;
+    private final ConcurrentLinkedQueue<Work> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder deferredTicks = new LongAdder();
+    private BukkitTask task;
+
+    public MainThreadWorkQueue(StructuresFinder plugin) {
+        this.plugin = plugin;
+    }
+
+    public void start() {
+        if (task == null) {
+            task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+        }
+    }
+
+    /**
+     * Stops the timer and runs whatever is still queued. Called on disable.
+     */
+    public void shutdown() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        Work work;
+        while ((work = queue.poll()) != null) {
+            size.decrementAndGet();
+            run(work);
+        }
+    }
+
+    /**
+     * Queues work for the main thread.
+     */
+    public void submit(Runnable action) {
+        queue.add(new Work(action, System.nanoTime()));
+        size.incrementAndGet();
+    }
+
+    private void tick() {
+        if (queue.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = start + plugin.getMainThreadBudgetNanos();
+        Work work;
+        do {
+            work = queue.poll();
+            if (work == null) {
+                break;
+            }
+            size.decrementAndGet();
+            waitTimer.record(System.nanoTime() - work.queuedAt());
+            run(work);
+        } while (System.nanoTime() < deadline);
+
+        long end = System.nanoTime();
+        tickTimer.record(end - start);
+        if (!queue.isEmpty()) {
+            deferredTicks.increment();
+            DebugLogger.debug(() -> "Main-thread budget used (" + (end - start) / 1_000_000 + "ms), "
+                    + size.get() + " items carried over");
+        }
+    }
+
+    private void run(Work work) {
+        try {
+            work.action().run();
+        } catch (RuntimeException e) {
+            DebugLogger.error("Queued main-thread work failed", e);
+        }
+    }
+
+    /**
+     * Number of items waiting.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Number of ticks that ran out of budget with work left over.
+     */
+    public long getDeferredTicks() {
+        return deferredTicks.sum();
+    }
+}
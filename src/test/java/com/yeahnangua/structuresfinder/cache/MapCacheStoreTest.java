@@ -0,0 +1,148 @@
+package com.yeahnangua.structuresfinder.cache;
+
+import com.yeahnangua.structuresfinder.data.StructureData;
+import com.yeahnangua.structuresfinder.map.TerrainGrid;
+import org.bukkit.map.MapView;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MapCacheStoreTest {
+
+    private static final Logger LOGGER = Logger.getLogger(MapCacheStoreTest.class.getName());
+    private static final long FINGERPRINT = 0x1234_5678_9ABCL;
+    private static final Map<Long, MapView.Scale> SCALES = Map.of(FINGERPRINT, MapView.Scale.FAR);
+    // Mirrors the file layout in MapCacheStore
+    private static final int HEADER_SIZE = 64;
+    private static final int OFF_STRINGS = 30;
+    private static final int OFF_TERRAIN = OFF_STRINGS + 320 + 1 + 4;
+
+    @TempDir
+    Path dir;
+
+    private File file() {
+        return dir.resolve("maps.dat").toFile();
+    }
+
+    private static TerrainGrid terrain(int step, int seed) {
+        int cells = TerrainGrid.cellsPerAxis(step);
+        byte[] classes = new byte[cells * cells];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = (byte) ((i * 7 + seed) % 8);
+        }
+        return TerrainGrid.pack(step, classes);
+    }
+
+    private static CachedMapData map(int x, int step) {
+        StructureData structure = new StructureData("world", x, 64, -x, "tower_" + x + ".schem", "SURFACE", x % 2 == 0);
+        return new CachedMapData(structure, MapView.Scale.FAR, terrain(step, x), x - 100, -x + 50);
+    }
+
+    @Test
+    void writtenMapsReadBack() throws IOException {
+        CachedMapData written = map(3, 4);
+        MapCacheStore store = MapCacheStore.open(file(), LOGGER, 4);
+        int slot = store.write(written, FINGERPRINT);
+        store.close();
+
+        store = MapCacheStore.open(file(), LOGGER, 4);
+        List<CachedMapData> entries = store.readAll(SCALES);
+        assertEquals(1, entries.size());
+        CachedMapData read = entries.get(0);
+        assertEquals(written.structure(), read.structure());
+        assertEquals(MapView.Scale.FAR, read.scale());
+        assertEquals(written.centerX(), read.centerX());
+        assertEquals(written.centerZ(), read.centerZ());
+        assertEquals(slot, read.slot());
+        assertNull(read.terrain());
+
+        TerrainGrid terrain = store.readTerrain(slot);
+        assertNotNull(terrain);
+        assertEquals(4, terrain.step());
+        assertArrayEquals(written.terrain().packed(), terrain.packed());
+        store.close();
+    }
+
+    @Test
+    void unknownFingerprintsAreFreed() throws IOException {
+        MapCacheStore store = MapCacheStore.open(file(), LOGGER, 4);
+        int slot = store.write(map(1, 4), FINGERPRINT + 1);
+
+        assertEquals(0, store.readAll(SCALES).size());
+        assertNull(store.readTerrain(slot));
+        assertEquals(slot, store.write(map(2, 4), FINGERPRINT));
+        store.close();
+    }
+
+    @Test
+    void corruptStringLengthFreesOnlyThatSlot() throws IOException {
+        MapCacheStore store = MapCacheStore.open(file(), LOGGER, 4);
+        int corrupt = store.write(map(1, 4), FINGERPRINT);
+        int intact = store.write(map(2, 4), FINGERPRINT);
+        store.close();
+
+        int slotSize = OFF_TERRAIN + TerrainGrid.packedLength(4);
+        try (RandomAccessFile raf = new RandomAccessFile(file(), "rw")) {
+            raf.seek(HEADER_SIZE + (long) corrupt * slotSize + OFF_STRINGS);
+            raf.writeShort(Short.MAX_VALUE);
+        }
+
+        store = MapCacheStore.open(file(), LOGGER, 4);
+        List<CachedMapData> entries = store.readAll(SCALES);
+        assertEquals(1, entries.size());
+        assertEquals(intact, entries.get(0).slot());
+        assertNull(store.readTerrain(corrupt));
+        // The freed slot is handed out again
+        assertEquals(corrupt, store.write(map(3, 4), FINGERPRINT));
+        store.close();
+    }
+
+    @Test
+    void stepChangeRecreatesFile() throws IOException {
+        MapCacheStore store = MapCacheStore.open(file(), LOGGER, 4);
+        store.write(map(1, 4), FINGERPRINT);
+        store.close();
+
+        store = MapCacheStore.open(file(), LOGGER, 8);
+        assertEquals(0, store.readAll(SCALES).size());
+        assertEquals(HEADER_SIZE + 64L * (OFF_TERRAIN + TerrainGrid.packedLength(8)), file().length());
+
+        CachedMapData written = map(2, 8);
+        int slot = store.write(written, FINGERPRINT);
+        assertArrayEquals(written.terrain().packed(), store.readTerrain(slot).packed());
+        store.close();
+    }
+
+    @Test
+    void growsPastInitialSlots() throws IOException {
+        MapCacheStore store = MapCacheStore.open(file(), LOGGER, 4);
+        Set<Integer> slots = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            slots.add(store.write(map(i, 4), FINGERPRINT));
+        }
+        assertEquals(100, slots.size());
+        store.close();
+
+        store = MapCacheStore.open(file(), LOGGER, 4);
+        List<CachedMapData> entries = store.readAll(SCALES);
+        assertEquals(100, entries.size());
+        for (CachedMapData entry : entries) {
+            assertArrayEquals(terrain(4, entry.structure().x()).packed(), store.readTerrain(entry.slot()).packed());
+        }
+        store.close();
+    }
+}
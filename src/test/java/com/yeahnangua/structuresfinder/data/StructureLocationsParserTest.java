@@ -0,0 +1,78 @@
+package com.yeahnangua.structuresfinder.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StructureLocationsParserTest {
+
+    @TempDir
+    Path dir;
+
+    private static String entry(int x, int y, int z, String type, boolean cleared) {
+        return "  " + x + "," + y + "," + z + ":\n"
+                + "    x: " + x + "\n"
+                + "    y: " + y + "\n"
+                + "    z: " + z + "\n"
+                + "    schematic: structure_" + Math.abs(x % 7) + ".schem\n"
+                + "    type: " + type + "\n"
+                + "    cleared: " + cleared + "\n";
+    }
+
+    private File write(String content) throws IOException {
+        Path file = dir.resolve("structure_locations.yml");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file.toFile();
+    }
+
+    @Test
+    void negativeAndMixedSignKeysStream() throws IOException {
+        File file = write("structures:\n"
+                + entry(-5, 64, 7, "SURFACE", false)
+                + entry(12, -30, -4501, "UNDERGROUND_DEEP", true)
+                + entry(-29999, -64, -1, "SKY", false)
+                + entry(300, 70, 300, "LIQUID_SURFACE", true));
+
+        StructureLocationsParser.ParseResult result = StructureLocationsParser.parseStreamingResumable("world", file);
+
+        assertNotNull(result.resume());
+        assertEquals(4, result.structures().size());
+        assertEquals(StructureLocationsParser.parseWithYaml("world", file), result.structures());
+        assertEquals(new StructureData("world", 12, -30, -4501, "structure_5.schem", "UNDERGROUND_DEEP", true),
+                result.structures().get(1));
+    }
+
+    @Test
+    void appendedNegativeKeysMatchFullParse() throws IOException {
+        File file = write("structures:\n" + entry(-5, 64, 7, "SURFACE", false));
+        StructureLocationsParser.Resume resume =
+                StructureLocationsParser.parseStreamingResumable("world", file).resume();
+        assertNotNull(resume);
+
+        Files.writeString(file.toPath(), entry(-40, 60, -41, "SKY", true), StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+        StructureLocationsParser.ParseResult appended = StructureLocationsParser.parseAppended("world", file, resume);
+
+        assertNotNull(appended);
+        assertNotNull(appended.resume());
+        // The only entry read before is read again, so the tail holds the whole file
+        assertEquals(StructureLocationsParser.parseWithYaml("world", file), appended.structures());
+    }
+
+    @Test
+    void listItemsAreRejected() throws IOException {
+        File file = write("structures:\n  - -5,64,7\n");
+
+        assertThrows(StructureLocationsParser.UnexpectedFormatException.class, () -> StructureLocationsParser.parseStreaming("world", file));
+    }
+}
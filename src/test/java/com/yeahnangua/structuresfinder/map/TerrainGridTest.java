@@ -0,0 +1,56 @@
+package com.yeahnangua.structuresfinder.map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TerrainGridTest {
+
+    private static byte[] classes(int step) {
+        int cells = TerrainGrid.cellsPerAxis(step);
+        byte[] classes = new byte[cells * cells];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = (byte) ((i * 5 + i / cells) % 8);
+        }
+        return classes;
+    }
+
+    @Test
+    void packedGridRoundTrips() {
+        for (int step : new int[]{1, 3, 4, 7, 128}) {
+            byte[] classes = classes(step);
+            TerrainGrid packed = TerrainGrid.pack(step, classes);
+            assertEquals(TerrainGrid.packedLength(step), packed.packed().length);
+
+            TerrainGrid grid = TerrainGrid.fromPacked(step, packed.packed().clone());
+            assertNotNull(grid);
+            assertEquals(step, grid.step());
+            assertArrayEquals(packed.packed(), grid.packed());
+            int cells = grid.cells();
+            for (int z = 0; z < cells; z++) {
+                for (int x = 0; x < cells; x++) {
+                    assertEquals(classes[z * cells + x], grid.getClass(x, z));
+                }
+            }
+        }
+    }
+
+    @Test
+    void lengthMustMatchStep() {
+        byte[] packed = TerrainGrid.pack(4, classes(4)).packed();
+
+        assertNull(TerrainGrid.fromPacked(8, packed));
+        assertNull(TerrainGrid.fromPacked(4, new byte[packed.length - 1]));
+        assertNull(TerrainGrid.fromPacked(4, new byte[packed.length + 1]));
+    }
+
+    @Test
+    void invalidStepIsRejected() {
+        assertNull(TerrainGrid.fromPacked(0, new byte[0]));
+        assertNull(TerrainGrid.fromPacked(-4, new byte[TerrainGrid.packedLength(4)]));
+        assertNull(TerrainGrid.fromPacked(TerrainGrid.MAP_SIZE + 1, new byte[1]));
+    }
+}